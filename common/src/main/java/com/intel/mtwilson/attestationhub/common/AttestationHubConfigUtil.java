@@ -39,4 +39,17 @@ public class AttestationHubConfigUtil {
         return loadedConfiguration.get(key, defaultValue);
     }
 
+    public static int getInteger(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid value {} configured for {}. Defaulting to {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
 }
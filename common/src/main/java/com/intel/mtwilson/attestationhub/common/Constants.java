@@ -7,6 +7,12 @@ public class Constants {
     public static final String ATTESTATION_HUB_DB_URL = "attestation-hub.db.url";
     public static final String ATTESTATION_HUB_DB_DRIVER = "attestation-hub.db.driver";
     public static final String ATTESTATION_HUB_DB_PASSWORD = "attestation-hub.db.password";
+    public static final String ATTESTATION_HUB_DB_POOL_MIN_SIZE = "attestation-hub.db.pool.min.size";
+    public static final String ATTESTATION_HUB_DB_POOL_MAX_SIZE = "attestation-hub.db.pool.max.size";
+    public static final String ATTESTATION_HUB_DB_POOL_IDLE_TIMEOUT = "attestation-hub.db.pool.idle.timeout";
+    public static final String ATTESTATION_HUB_DB_MAX_OPEN_STATEMENTS = "attestation-hub.db.max.open.statements";
+    public static final String ATTESTATION_HUB_DB_BATCH_SIZE = "attestation-hub.db.batch.size";
+    public static final String ATTESTATION_HUB_DB_FETCH_SIZE = "attestation-hub.db.fetch.size";
     public static final String ATTESTATION_HUB_TENANT_CONFIGURATIONS_PATH = "tenant.configuration.path";
 
     public static final String MTWILSON_API_URL = "mtwilson.api.url";
@@ -14,7 +20,32 @@ public class Constants {
     public static final String MTWILSON_API_PASSWORD = "mtwilson.api.password";
     public static final String MTWILSON_API_TLS = "mtwilson.api.tls.policy.certificate.sha256";
     public static final String ATTESTATION_HUB_POLL_INTERVAL = "attestation-hub.poll.interval";
+    public static final String ATTESTATION_HUB_POLL_JITTER = "attestation-hub.poll.jitter";
+    public static final String ATTESTATION_HUB_SCHEDULER_TRIGGER_FILE_NAME = "HubSchedulerTrigger.txt";
     public static final String ATTESTATION_HUB_SAML_TIMEOUT = "attestation-hub.saml.timeout";
+    public static final String ATTESTATION_HUB_FETCH_THREADS = "attestation-hub.fetch.threads";
+    public static final String ATTESTATION_HUB_FETCH_TIMEOUT = "attestation-hub.fetch.timeout";
+    public static final String ATTESTATION_HUB_FETCH_CONNECT_TIMEOUT = "attestation-hub.fetch.connect.timeout";
+    public static final String ATTESTATION_HUB_FETCH_PAGE_SIZE = "attestation-hub.fetch.page.size";
+    public static final String ATTESTATION_HUB_WATERMARK_OVERLAP = "attestation-hub.watermark.overlap";
+    public static final String ATTESTATION_HUB_RETRY_DELAY = "attestation-hub.retry.delay";
+    public static final String ATTESTATION_HUB_RETRY_MAX_DELAY = "attestation-hub.retry.max.delay";
+    public static final String ATTESTATION_HUB_RETRY_FAILURE_THRESHOLD = "attestation-hub.retry.failure.threshold";
+    public static final String ATTESTATION_HUB_MTW_OUTAGE_TIMEOUT = "attestation-hub.mtw.outage.timeout";
+    public static final String ATTESTATION_HUB_VERIFY_THREADS = "attestation-hub.verify.threads";
+    public static final String ATTESTATION_HUB_PUBLISH_THREADS = "attestation-hub.publish.threads";
+    public static final String ATTESTATION_HUB_SIGN_THREADS = "attestation-hub.sign.threads";
+    public static final String ATTESTATION_HUB_REPORT_CACHE_SIZE = "attestation-hub.report.cache.size";
+    public static final String ATTESTATION_HUB_PUSH_THREADS = "attestation-hub.push.threads";
+    public static final String ATTESTATION_HUB_PUSH_MAX_CONCURRENT = "attestation-hub.push.max.concurrent";
+    public static final String ATTESTATION_HUB_PUSH_TIMEOUT = "attestation-hub.push.timeout";
+    public static final String ATTESTATION_HUB_PUSH_CONNECT_TIMEOUT = "attestation-hub.push.connect.timeout";
+    public static final String ATTESTATION_HUB_PUSH_READ_TIMEOUT = "attestation-hub.push.read.timeout";
+    public static final String ATTESTATION_HUB_PUSH_CHUNKS_IN_FLIGHT = "attestation-hub.push.chunks.in.flight";
+    public static final String ATTESTATION_HUB_PUBLISH_SNAPSHOT_INTERVAL = "attestation-hub.publish.snapshot.interval";
+    public static final String ATTESTATION_HUB_PIPELINE_QUEUE_SIZE = "attestation-hub.pipeline.queue.size";
+    public static final String ATTESTATION_HUB_HOST_CACHE_TTL = "attestation-hub.host.cache.ttl";
+    public static final String ATTESTATION_HUB_HOST_CACHE_LOOKUP_LIMIT = "attestation-hub.host.cache.lookup.limit";
     public static final String CREATE = "create";
     public static final String UPDATE = "update";
     public static final String PUBLIC_KEY_FILE = "hub_public_key.pem";
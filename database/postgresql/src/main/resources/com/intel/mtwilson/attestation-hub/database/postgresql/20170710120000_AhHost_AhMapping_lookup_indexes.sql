@@ -0,0 +1,21 @@
+/**
+ * Indexes for the host and mapping lookups done on every publish cycle.
+ * The lookups compare upper(hardware_uuid) and upper(host_name), so the
+ * host indexes are on the uppercased values. The partial indexes cover
+ * only the active rows, which the JPA queries filter with deleted = false.
+ */
+
+UPDATE AH_HOST SET DELETED = false WHERE DELETED IS NULL;
+UPDATE AH_MAPPING SET DELETED = false WHERE DELETED IS NULL;
+UPDATE AH_TENANT SET DELETED = false WHERE DELETED IS NULL;
+ALTER TABLE AH_HOST ALTER COLUMN DELETED SET DEFAULT false;
+ALTER TABLE AH_MAPPING ALTER COLUMN DELETED SET DEFAULT false;
+ALTER TABLE AH_TENANT ALTER COLUMN DELETED SET DEFAULT false;
+
+CREATE INDEX AH_HOST_UPPER_HARDWARE_UUID_IDX ON AH_HOST (UPPER(HARDWARE_UUID));
+CREATE INDEX AH_HOST_UPPER_HOST_NAME_IDX ON AH_HOST (UPPER(HOST_NAME));
+CREATE INDEX AH_HOST_ACTIVE_HARDWARE_UUID_IDX ON AH_HOST (UPPER(HARDWARE_UUID)) WHERE DELETED = false;
+CREATE INDEX AH_MAPPING_ACTIVE_HOST_HARDWARE_UUID_IDX ON AH_MAPPING (HOST_HARDWARE_UUID) WHERE DELETED = false;
+CREATE INDEX AH_MAPPING_ACTIVE_TENANT_UUID_IDX ON AH_MAPPING (TENANT_UUID) WHERE DELETED = false;
+
+INSERT INTO changelog (ID, APPLIED_AT, DESCRIPTION) VALUES (20170710120000,NOW(),'Added lookup indexes on AH_HOST and AH_MAPPING');
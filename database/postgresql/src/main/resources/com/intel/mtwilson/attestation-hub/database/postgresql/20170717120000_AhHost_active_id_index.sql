@@ -0,0 +1,9 @@
+/**
+ * Index for listing the active hosts page by page in the order of their ids.
+ * A page is then a range scan that starts after the last id of the
+ * previous page.
+ */
+
+CREATE INDEX AH_HOST_ACTIVE_ID_IDX ON AH_HOST (ID) WHERE DELETED = false;
+
+INSERT INTO changelog (ID, APPLIED_AT, DESCRIPTION) VALUES (20170717120000,NOW(),'Added index for paging through active hosts');
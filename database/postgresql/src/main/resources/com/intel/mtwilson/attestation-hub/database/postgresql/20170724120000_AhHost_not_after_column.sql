@@ -0,0 +1,14 @@
+/**
+ * Stores the expiry of the SAML of the host so that expired hosts are found
+ * with an index scan instead of verifying every SAML on each run. Existing
+ * rows are filled in from the ISO formatted valid_to; the rest are filled in
+ * by the scheduler on its next run.
+ */
+
+ALTER TABLE AH_HOST ADD COLUMN NOT_AFTER TIMESTAMP;
+
+UPDATE AH_HOST SET NOT_AFTER = CAST(VALID_TO AS TIMESTAMP WITH TIME ZONE) WHERE NOT_AFTER IS NULL AND VALID_TO ~ '^[0-9]{4}-[0-9]{2}-[0-9]{2}T';
+
+CREATE INDEX AH_HOST_ACTIVE_NOT_AFTER_IDX ON AH_HOST (NOT_AFTER) WHERE DELETED = false;
+
+INSERT INTO changelog (ID, APPLIED_AT, DESCRIPTION) VALUES (20170724120000,NOW(),'Added SAML expiry column to host');
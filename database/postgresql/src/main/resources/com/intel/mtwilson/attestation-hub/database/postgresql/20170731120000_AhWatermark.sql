@@ -0,0 +1,9 @@
+/**
+ * Watermark of the attestations fetched from MTW, kept in the DB instead of
+ * the HubSchedulerRun.txt file so that it is updated atomically. The file is
+ * read once by the scheduler to seed the watermark.
+ */
+
+CREATE TABLE AH_WATERMARK (NAME VARCHAR(100) NOT NULL, WATERMARK TIMESTAMP, RECENT_IDS TEXT, MODIFIED_DATE TIMESTAMP, PRIMARY KEY (NAME));
+
+INSERT INTO changelog (ID, APPLIED_AT, DESCRIPTION) VALUES (20170731120000,NOW(),'Added table for the attestation watermark');
@@ -0,0 +1,9 @@
+/**
+ * Stores a SHA-256 of the SAML, trust status, trust tags and details of the
+ * host so that the scheduler skips writing hosts whose attestation has not
+ * changed. Existing rows have none and are written once more.
+ */
+
+ALTER TABLE AH_HOST ADD COLUMN FINGERPRINT VARCHAR(64);
+
+INSERT INTO changelog (ID, APPLIED_AT, DESCRIPTION) VALUES (20170807120000,NOW(),'Added attestation fingerprint column to host');
@@ -4,12 +4,18 @@
 package com.intel.attestationhub.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.ws.rs.QueryParam;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.intel.dcsg.cpg.validation.RegexPatterns;
+import com.intel.dcsg.cpg.validation.ValidationUtil;
 import com.intel.mtwilson.jaxrs2.DefaultFilterCriteria;
 import com.intel.mtwilson.repository.FilterCriteria;
 
@@ -18,13 +24,97 @@ import com.intel.mtwilson.repository.FilterCriteria;
  *
  */
 public class HostFilterCriteria extends DefaultFilterCriteria implements FilterCriteria{
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Host attributes that can be requested with the fields parameter
+     */
+    public static final Set<String> HOST_FIELDS = new HashSet<>(Arrays.asList("id", "hardware_uuid", "host_name",
+	    "bios_mle_uuid", "vmm_mle_uuid", "aik_certificate", "aik_sha256", "connection_url", "trust_tags_json",
+	    "valid_to", "not_after", "saml_report", "trusted", "asset_tags", "created_date", "created_by", "modified_date",
+	    "modified_by", "deleted"));
+
+    /**
+     * Host attributes stored in the TEXT columns which are skipped by the
+     * summary query
+     */
+    public static final Set<String> HOST_LARGE_FIELDS = new HashSet<>(
+	    Arrays.asList("aik_certificate", "trust_tags_json", "saml_report", "asset_tags"));
+
     @QueryParam("nameEqualTo")
     public String nameEqualTo = null;
-    
+
+    /**
+     * Id of the last host of the previous page. Hosts are listed in the order
+     * of their ids.
+     */
+    @QueryParam("after")
+    public String afterId = null;
+
+    @QueryParam("limit")
+    public Integer pageSize = null;
+
+    /**
+     * Comma separated host attributes to be returned
+     */
+    @QueryParam("fields")
+    public String fields = null;
+
+    /**
+     * @return true if the request lists hosts page by page instead of
+     *         searching by name
+     */
+    public boolean isListRequest() {
+	return StringUtils.isBlank(nameEqualTo)
+		&& (StringUtils.isNotBlank(afterId) || pageSize != null || StringUtils.isNotBlank(fields));
+    }
+
+    public int getPageSize() {
+	if (pageSize == null) {
+	    return DEFAULT_PAGE_SIZE;
+	}
+	return pageSize;
+    }
+
+    /**
+     * @return the requested host attributes, or null if all the attributes
+     *         are to be returned
+     */
+    public Set<String> getFieldSet() {
+	if (StringUtils.isBlank(fields)) {
+	    return null;
+	}
+	Set<String> fieldSet = new LinkedHashSet<>();
+	for (String field : fields.split(",")) {
+	    if (StringUtils.isNotBlank(field)) {
+		fieldSet.add(field.trim().toLowerCase());
+	    }
+	}
+	// the id is the page cursor, so it is always returned
+	fieldSet.add("id");
+	return fieldSet;
+    }
+
     public String validate(){
 	List<String> errors = new ArrayList<>();
-	
-	if(StringUtils.isBlank(nameEqualTo)){
+
+	if (isListRequest()) {
+	    if (pageSize != null && (pageSize < 1 || pageSize > MAX_PAGE_SIZE)) {
+		errors.add("Limit should be between 1 and " + MAX_PAGE_SIZE);
+	    }
+	    if (StringUtils.isNotBlank(afterId) && !ValidationUtil.isValidWithRegex(afterId, RegexPatterns.UUID)) {
+		errors.add("Host id to list after is not in UUID format");
+	    }
+	    Set<String> fieldSet = getFieldSet();
+	    if (fieldSet != null) {
+		for (String field : fieldSet) {
+		    if (!HOST_FIELDS.contains(field)) {
+			errors.add("Invalid host field: " + field);
+		    }
+		}
+	    }
+	} else if(StringUtils.isBlank(nameEqualTo)){
 	    errors.add("Name of the host to be searched cannot be blank");
 	}
 	return StringUtils.join(errors, ", ");
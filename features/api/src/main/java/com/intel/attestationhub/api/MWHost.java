@@ -1,5 +1,7 @@
 package com.intel.attestationhub.api;
 
+import java.util.Date;
+
 import com.intel.mtwilson.as.rest.v2.model.Host;
 import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
 import com.intel.mtwilson.saml.TrustAssertion;
@@ -8,7 +10,9 @@ public class MWHost {
     private Host host;
     private HostAttestation mwHostAttestation;
     private String samlValidTo;
+    private Date samlNotAfter;
     private Boolean trusted;
+    private boolean unchanged;
     private TrustAssertion trustAssertion;
 
     public TrustAssertion getTrustAssertion() {
@@ -43,6 +47,14 @@ public class MWHost {
 	this.samlValidTo = samlValidTo;
     }
 
+    public Date getSamlNotAfter() {
+	return samlNotAfter;
+    }
+
+    public void setSamlNotAfter(Date samlNotAfter) {
+	this.samlNotAfter = samlNotAfter;
+    }
+
     public Boolean getTrusted() {
 	return trusted;
     }
@@ -51,4 +63,16 @@ public class MWHost {
 	this.trusted = trusted;
     }
 
+    /**
+     * @return true if the hub already had the same attestation of the host,
+     *         so nothing was saved for it
+     */
+    public boolean isUnchanged() {
+	return unchanged;
+    }
+
+    public void setUnchanged(boolean unchanged) {
+	this.unchanged = unchanged;
+    }
+
 }
@@ -2,7 +2,34 @@ package com.intel.attestationhub.api;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Hosts of a tenant pushed to a plugin. Plugins which publish deltas get
+ * version 2, where a snapshot carries all the hosts of the tenant and a delta
+ * carries the hosts added or changed since the last push along with the ids
+ * of the hosts removed. The other plugins get all the hosts without the
+ * version, type and removed host fields, as in version 1.
+ *
+ * A push split in chunks has the index of the chunk, from 0, and the number
+ * of chunks set. The removed hosts are in the first chunk.
+ */
 public class PublishData {
+    public static final int VERSION_DELTA = 2;
+    public static final String TYPE_SNAPSHOT = "snapshot";
+    public static final String TYPE_DELTA = "delta";
+
     public List<HostDetails> hostDetailsList;
     public String tenantId;
+    @JsonInclude(Include.NON_NULL)
+    public Integer version;
+    @JsonInclude(Include.NON_NULL)
+    public String type;
+    @JsonInclude(Include.NON_NULL)
+    public List<String> removedHostIds;
+    @JsonInclude(Include.NON_NULL)
+    public Integer chunkIndex;
+    @JsonInclude(Include.NON_NULL)
+    public Integer chunkCount;
 }
@@ -56,6 +56,8 @@ public class Tenant {
 
     public static class Plugin {
 	public static final String PLUGIN_PROVIDER = "plugin.provider";
+	public static final String PUBLISH_MODE = "publish.mode";
+	public static final String PUBLISH_MODE_DELTA = "delta";
 
 	public String name;
 	public List<Property> properties;
@@ -96,6 +98,20 @@ public class Tenant {
 	    }
 	    return providerClass;
 	}
+
+	/**
+	 * @return true if the plugin is configured with publish.mode=delta to
+	 *         receive only the hosts changed since its last push
+	 */
+	public boolean isDeltaPublishing() {
+	    List<Property> properties = getProperties();
+	    for (Property property : properties) {
+		if (PUBLISH_MODE.equals(property.getKey())) {
+		    return PUBLISH_MODE_DELTA.equalsIgnoreCase(property.getValue());
+		}
+	    }
+	    return false;
+	}
     }
 
     public static class Property {
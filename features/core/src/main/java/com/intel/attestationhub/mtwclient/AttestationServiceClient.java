@@ -7,6 +7,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.intel.attestationhub.api.MWHost;
+import com.intel.attestationhub.pipeline.PipelineStage;
+import com.intel.attestationhub.pipeline.StageProcessor;
 import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.crypto.CryptographyException;
 import com.intel.dcsg.cpg.extensions.Extensions;
@@ -49,6 +51,16 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateEncodingException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @SuppressWarnings("deprecation")
 public class AttestationServiceClient {
@@ -57,9 +69,20 @@ public class AttestationServiceClient {
     private static Properties mtwProperties = new Properties();
     private static Properties mtwPropertiesForverification = new Properties();
     private static AttestationServiceClient attestationServiceClient = null;
+    private static final int DEFAULT_FETCH_THREADS = 10;
+    private static final int DEFAULT_VERIFY_THREADS = 4;
+    private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_FETCH_PAGE_SIZE = 500;
+    private static final long DEFAULT_FETCH_WINDOW_MILLIS = 5 * 60 * 1000L;
+    private static final long MIN_FETCH_WINDOW_MILLIS = 1000L;
+    private static final long MAX_FETCH_WINDOW_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final Pattern SAML_ISSUE_INSTANT_PATTERN = Pattern
+            .compile("<(?:\\w+:)?Assertion\\b[^>]*\\bIssueInstant=\"([^\"]+)\"");
 
 
     private AttestationServiceClient() throws AttestationHubException {
+        MtwClientFactory.configureConnectionReuse();
+        MtwClientFactory.configureTimeouts();
         Extensions.register(TlsPolicyCreator.class,
                 com.intel.mtwilson.tls.policy.creator.impl.CertificateDigestTlsPolicyCreator.class);
         populateAttestationServiceProperties();
@@ -141,46 +164,111 @@ public class AttestationServiceClient {
         return attestationServiceClient;
     }
 
-    public Map<String, MWHost> fetchHostAttestations(List<Host> hosts) throws AttestationHubException {
+    /**
+     * Fetches the latest attestation of each host and passes the verified
+     * attestations on to the given stage as they come in. The attestations
+     * are fetched by the fetch threads and verified by the workers of the
+     * verify stage. Returns once the sink stage and the stages after it have
+     * processed all the hosts.
+     */
+    public void fetchHostAttestations(List<Host> hosts, PipelineStage<MWHost, ?> sink)
+            throws AttestationHubException {
         if (mtwProperties == null) {
             throw new AttestationHubException("Configuration parameters for MTW client are not initialized");
         }
 
         if (hosts == null || hosts.size() == 0) {
             log.info("No hosts passed to the method to fetch the attestations");
-            return null;
+            return;
         }
-        log.info("Fetching host attestations");
-        Map<String, MWHost> hostIdToMwHostMap = new HashMap<>(hosts.size());
-        HostAttestations hostAttestationsService = MtwClientFactory.getHostAttestationsClient(mtwProperties);
-
-        for (Host host : hosts) {
-            String hostId = host.getId().toString();
-            log.info("Retrieveing attestation for host: {}", hostId);
-            HostAttestationFilterCriteria criteria = new HostAttestationFilterCriteria();
-            criteria.nameEqualTo = host.getName();
-            criteria.limit = 1;
-            HostAttestationCollection searchHostAttestations = null;
+        int threads = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_FETCH_THREADS,
+                DEFAULT_FETCH_THREADS);
+        if (threads <= 0) {
+            threads = DEFAULT_FETCH_THREADS;
+        }
+        threads = Math.min(threads, hosts.size());
+        log.info("Fetching host attestations of {} hosts with {} threads", hosts.size(), threads);
+        final HostAttestations hostAttestationsService = MtwClientFactory.getHostAttestationsClient(mtwProperties);
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        final PipelineStage<FetchedAttestation, MWHost> verifyStage = newVerifyStage();
+        verifyStage.connect(sink);
+        verifyStage.start();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "attestation-hub-fetch-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>(hosts.size());
+        try {
+            for (final Host host : hosts) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (!aborted.get()) {
+                            fetchHostAttestation(hostAttestationsService, host, verifyStage);
+                        }
+                        return null;
+                    }
+                }));
+            }
 
-            try {
-                searchHostAttestations = hostAttestationsService.searchHostAttestations(criteria);
-            } catch (Exception e) {
-                log.error("Unable to get host attestations for host with ID={} and name={}", host.getId().toString(),
-                        host.getName(), e);
-                if (e instanceof ConnectException) {
-                    throw new AttestationHubException("Cannot connect to attestation service", e);
+            // a fetch which hangs is bounded by the read timeout of the MTW
+            // client, see MtwClientFactory.configureTimeouts
+            for (int i = 0; i < futures.size(); i++) {
+                Future<?> future = futures.get(i);
+                Host host = hosts.get(i);
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ConnectException) {
+                        aborted.set(true);
+                        throw new AttestationHubException("Cannot connect to attestation service", e.getCause());
+                    }
+                    log.error("Unable to get host attestations for host with ID={} and name={}", host.getId(),
+                            host.getName(), e.getCause());
+                } catch (InterruptedException e) {
+                    aborted.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new AttestationHubException("Interrupted while fetching host attestations", e);
                 }
-                continue;
-            }
-            if (searchHostAttestations != null && searchHostAttestations.getHostAttestations() != null
-                    && searchHostAttestations.getHostAttestations().size() > 0) {
-                HostAttestation hostAttestation = searchHostAttestations.getHostAttestations().get(0);
-                populateMwHost(host, hostAttestation, hostIdToMwHostMap);
             }
+        } finally {
+            executorService.shutdownNow();
+            finishStage(verifyStage);
         }
 
-        log.info("Returning the hosts and host attestations");
-        return hostIdToMwHostMap;
+        log.info("Fetched the host attestations");
+    }
+
+    private void fetchHostAttestation(HostAttestations hostAttestationsService, Host host,
+            PipelineStage<FetchedAttestation, MWHost> verifyStage) throws Exception {
+        String hostId = host.getId().toString();
+        log.info("Retrieveing attestation for host: {}", hostId);
+        HostAttestationFilterCriteria criteria = new HostAttestationFilterCriteria();
+        criteria.nameEqualTo = host.getName();
+        criteria.limit = 1;
+        HostAttestationCollection searchHostAttestations = null;
+
+        try {
+            searchHostAttestations = hostAttestationsService.searchHostAttestations(criteria);
+        } catch (Exception e) {
+            if (e instanceof ConnectException) {
+                throw e;
+            }
+            log.error("Unable to get host attestations for host with ID={} and name={}", hostId, host.getName(), e);
+            return;
+        }
+        if (searchHostAttestations != null && searchHostAttestations.getHostAttestations() != null
+                && searchHostAttestations.getHostAttestations().size() > 0) {
+            HostAttestation hostAttestation = searchHostAttestations.getHostAttestations().get(0);
+            verifyStage.put(new FetchedAttestation(host, hostAttestation.getHostUuid(), hostAttestation));
+        }
     }
 
     public List<Host> fetchHosts() throws AttestationHubException {
@@ -205,100 +293,252 @@ public class AttestationServiceClient {
         if (objCollection != null && objCollection.getHosts() != null && objCollection.getHosts().size() > 0) {
             hosts = objCollection.getHosts();
             log.info("Call to MTW get hosts returned {} hosts", hosts.size());
+            HostMetadataCache.getInstance().put(hosts);
         }
         log.info("Returning hosts list");
         return hosts;
     }
 
-    public Map<String, MWHost> fetchHostAttestations(String lastDateTimeFromLastRunFile)
-            throws AttestationHubException {
+    /**
+     * Fetches the attestations created since the given time and passes the
+     * verified attestations on to the given stage. The attestations are
+     * fetched a time window at a time, with at most
+     * attestation-hub.fetch.page.size attestations per request, and each
+     * window is queued for verification before the next one is requested. A
+     * window which fills the page is split, and windows with few attestations
+     * are widened, see {@link FetchWindow}. The page of a window of the
+     * minimum length which still fills the page is processed and the rest of
+     * that window is skipped with an error, so that a burst of attestations
+     * does not hold back the watermark. Returns once the sink stage and the
+     * stages after it have processed all the attestations.
+     *
+     * @param skipAttestationIds
+     *            ids of the attestations already stored, which are not
+     *            processed again
+     * @return false if the attestations could not be fetched
+     */
+    public boolean fetchHostAttestations(String lastDateTimeFromLastRunFile, Set<String> skipAttestationIds,
+            PipelineStage<MWHost, ?> sink) throws AttestationHubException {
         if (mtwProperties == null) {
             throw new AttestationHubException("Configuration parameters for MTW client are not initialized");
         }
 
         if (StringUtils.isBlank(lastDateTimeFromLastRunFile)) {
             log.info("No last run time to fetch the attestations");
-            return null;
+            return false;
         }
+        DateTime start;
+        try {
+            start = ISODateTimeFormat.dateTimeParser().withZoneUTC().parseDateTime(lastDateTimeFromLastRunFile);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid date to fetch the host attestations from: {}", lastDateTimeFromLastRunFile, e);
+            return false;
+        }
+        DateTime end = new DateTime(DateTimeZone.UTC);
+        int pageSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_FETCH_PAGE_SIZE,
+                DEFAULT_FETCH_PAGE_SIZE);
+        if (pageSize <= 0) {
+            pageSize = DEFAULT_FETCH_PAGE_SIZE;
+        }
+        FetchWindow window = new FetchWindow(start, end, pageSize, DEFAULT_FETCH_WINDOW_MILLIS,
+                MIN_FETCH_WINDOW_MILLIS, MAX_FETCH_WINDOW_MILLIS);
 
         log.info("Fetching host attestations added since {}", lastDateTimeFromLastRunFile);
-        Map<String, MWHost> hostIdToMwHostMap = new HashMap<>();
         HostAttestations hostAttestationsService = MtwClientFactory.getHostAttestationsClient(mtwProperties);
-
         Hosts hostsService = MtwClientFactory.getHostsClient(mtwProperties);
+        PipelineStage<FetchedAttestation, MWHost> verifyStage = newVerifyStage();
+        verifyStage.connect(sink);
+        verifyStage.start();
+        int received = 0;
+        // attestations on the boundary of two windows are returned for both
+        Set<String> previousWindowIds = new HashSet<>();
+        try {
+            while (window.hasNext()) {
+                DateTime windowStart = window.getStart();
+                DateTime windowEnd = window.getEnd();
+                List<HostAttestation> hostAttestations = searchHostAttestations(hostAttestationsService,
+                        windowStart, windowEnd, pageSize);
+                if (hostAttestations == null) {
+                    return false;
+                }
+                if (window.narrow(hostAttestations.size())) {
+                    log.debug("Page of host attestations from {} is full. Narrowing the window to {} millis",
+                            windowStart, window.getMillis());
+                    continue;
+                }
+                if (window.isTruncated(hostAttestations.size())) {
+                    log.error("More than {} host attestations between {} and {} may exist. Only the {} returned are"
+                            + " processed and the others are SKIPPED. Increase {} to fetch them", pageSize,
+                            windowStart, windowEnd, hostAttestations.size(), Constants.ATTESTATION_HUB_FETCH_PAGE_SIZE);
+                }
+                Set<String> windowIds = new HashSet<>();
+                List<HostAttestation> newAttestations = new ArrayList<>(hostAttestations.size());
+                for (HostAttestation hostAttestation : hostAttestations) {
+                    if (hostAttestation.getId() != null) {
+                        String attestationId = hostAttestation.getId().toString();
+                        windowIds.add(attestationId);
+                        if (skipAttestationIds.contains(attestationId) || previousWindowIds.contains(attestationId)) {
+                            log.debug("Skipping attestation {} stored earlier", attestationId);
+                            continue;
+                        }
+                    }
+                    newAttestations.add(hostAttestation);
+                }
+                List<HostAttestation> latestAttestations = keepLatestAttestationPerHost(newAttestations);
+                Map<String, Host> hostsByUuid = getHosts(latestAttestations, hostsService);
+                for (HostAttestation hostAttestation : latestAttestations) {
+                    // a host not cached, or cached too long ago, is retrieved
+                    // by the verify stage
+                    verifyStage.put(new FetchedAttestation(hostsByUuid.get(hostAttestation.getHostUuid()),
+                            hostAttestation.getHostUuid(), hostAttestation));
+                }
+                received += hostAttestations.size();
+                previousWindowIds = windowIds;
+                window.advance(hostAttestations.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AttestationHubException("Interrupted while fetching host attestations", e);
+        } finally {
+            finishStage(verifyStage);
+        }
+
+        log.info("Fetched {} host attestations added since {}", received, lastDateTimeFromLastRunFile);
+        return true;
+    }
 
+    /**
+     * Drops all but the latest attestation of each host, before any of them
+     * is verified. The SAML is not verified here; its IssueInstant is only
+     * read to order the attestations of a host. Attestations without a
+     * readable IssueInstant are ordered as returned by MTW.
+     */
+    private List<HostAttestation> keepLatestAttestationPerHost(List<HostAttestation> hostAttestations) {
+        Map<String, HostAttestation> latestAttestations = new LinkedHashMap<>();
+        Map<String, DateTime> latestIssueInstants = new HashMap<>();
+        for (HostAttestation hostAttestation : hostAttestations) {
+            String hostUuid = hostAttestation.getHostUuid();
+            DateTime issueInstant = getSamlIssueInstant(hostAttestation.getSaml());
+            DateTime latestIssueInstant = latestIssueInstants.get(hostUuid);
+            if (latestAttestations.containsKey(hostUuid) && issueInstant != null && latestIssueInstant != null
+                    && issueInstant.isBefore(latestIssueInstant)) {
+                continue;
+            }
+            latestAttestations.put(hostUuid, hostAttestation);
+            latestIssueInstants.put(hostUuid, issueInstant);
+        }
+        if (latestAttestations.size() < hostAttestations.size()) {
+            log.info("Dropped {} older attestations of the same hosts",
+                    hostAttestations.size() - latestAttestations.size());
+        }
+        return new ArrayList<>(latestAttestations.values());
+    }
+
+    /**
+     * @return hosts of the given attestations from the host metadata cache,
+     *         or none if the hosts could not be resolved
+     */
+    private Map<String, Host> getHosts(List<HostAttestation> hostAttestations, Hosts hostsService) {
+        Set<String> hostUuids = new HashSet<>();
+        for (HostAttestation hostAttestation : hostAttestations) {
+            hostUuids.add(hostAttestation.getHostUuid());
+        }
+        try {
+            return HostMetadataCache.getInstance().getHosts(hostUuids, hostsService);
+        } catch (AttestationHubException e) {
+            log.error("Unable to resolve the hosts of the attestations. Retrieving them one at a time", e);
+            return new HashMap<>();
+        }
+    }
+
+    private static DateTime getSamlIssueInstant(String saml) {
+        if (saml == null) {
+            return null;
+        }
+        Matcher matcher = SAML_ISSUE_INSTANT_PATTERN.matcher(saml);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return ISODateTimeFormat.dateTimeParser().withZoneUTC().parseDateTime(matcher.group(1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the attestations created in the given window, or null if they
+     *         could not be fetched
+     */
+    private List<HostAttestation> searchHostAttestations(HostAttestations hostAttestationsService,
+            DateTime fromDate, DateTime toDate, int limit) throws AttestationHubException {
+        DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
         HostAttestationFilterCriteria criteria = new HostAttestationFilterCriteria();
-        criteria.fromDate = lastDateTimeFromLastRunFile;
+        criteria.fromDate = fmt.print(fromDate);
+        criteria.toDate = fmt.print(toDate);
+        criteria.limit = limit;
         HostAttestationCollection searchHostAttestations = null;
 
         try {
             searchHostAttestations = hostAttestationsService.searchHostAttestations(criteria);
         } catch (Exception e) {
-            log.error("Unable to get host attestations for from date : {}", lastDateTimeFromLastRunFile, e);
+            log.error("Unable to get host attestations from date : {} to date : {}", criteria.fromDate,
+                    criteria.toDate, e);
             if (e instanceof ConnectException) {
                 throw new AttestationHubException("Cannot connect to attestation service", e);
             }
             return null;
         }
-
-        if (searchHostAttestations != null && searchHostAttestations.getHostAttestations() != null
-                && searchHostAttestations.getHostAttestations().size() > 0) {
-            List<HostAttestation> hostAttestations = searchHostAttestations.getHostAttestations();
-            for (HostAttestation hostAttestation : hostAttestations) {
-                String hostUuid = hostAttestation.getHostUuid();
-                Host citHost = hostsService.retrieveHost(hostUuid);
-                populateMwHost(citHost, hostAttestation, hostIdToMwHostMap);
-            }
+        if (searchHostAttestations == null || searchHostAttestations.getHostAttestations() == null) {
+            return new ArrayList<>();
         }
-
-        log.info("Returning the hosts and host attestations returned from MTW : {}", hostIdToMwHostMap.size());
-        return hostIdToMwHostMap;
+        return searchHostAttestations.getHostAttestations();
     }
 
+    /**
+     * Marks the hosts whose SAML has expired as deleted. The expiry of each
+     * SAML is stored with the host when it is saved, so this is a single
+     * UPDATE on the indexed not_after column. Hosts saved before the column
+     * existed have their SAML verified once to fill it in.
+     */
     public void updateHostsForSamlTimeout() throws AttestationHubException {
         log.info("updating deleted status of hosts depending on the expiry of saml");
         PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
         AhHostJpaController ahHostJpaController = persistenceServiceFactory.getHostController();
-        HostAttestations hostAttestationsService = MtwClientFactory
-                .getHostAttestationsClient(mtwPropertiesForverification);
-
-        List<AhHost> ahHostEntities = ahHostJpaController.findAhHostEntities();
-        log.info("Fetched {} hosts from attests hub db", ahHostEntities.size());
-
-        for (AhHost ahHost : ahHostEntities) {
-            log.info("Processing saml verification for host: {}", ahHost.getId());
-            String samlReport = ahHost.getSamlReport();
 
-            TrustAssertion verifyTrustAssertion = convertSamlToTrustAssertion(hostAttestationsService, samlReport);
-            if (verifyTrustAssertion == null) {
-                log.info("No verification report for host: {}", ahHost.getId());
-                continue;
-            }
-
-            DateTime currentDateTime = new DateTime(DateTimeZone.UTC);
-            Date notAfter = verifyTrustAssertion.getNotAfter();
-            DateTime notOnOrAfter = new DateTime(notAfter.getTime(), DateTimeZone.UTC);
-            log.info("Current Date : {} and saml notOnOrAfter : {}", currentDateTime, notOnOrAfter);
-            log.info("notOnOrAfter.isBeforeNow() = {} and  notOnOrAfter.isEqualNow() = {}", notOnOrAfter.isBeforeNow(),
-                    notOnOrAfter.isEqualNow());
-            if (notOnOrAfter.isBeforeNow() || notOnOrAfter.isEqualNow()) {
-                Date issueDate = verifyTrustAssertion.getDate();
-                DateTime issueDateUTC = new DateTime(issueDate.getTime(), DateTimeZone.UTC);
-
-                log.info("Marking host : {} as deleted as the saml issue date is {} and expiring now which is {}",
-                        ahHost.getId(), issueDateUTC, currentDateTime);
-
-                ahHost.setDeleted(true);
+        List<AhHost> hostsWithoutNotAfter = ahHostJpaController.findActiveHostsWithoutNotAfter();
+        if (hostsWithoutNotAfter != null && !hostsWithoutNotAfter.isEmpty()) {
+            log.info("Verifying saml of {} hosts stored without saml expiry", hostsWithoutNotAfter.size());
+            HostAttestations hostAttestationsService = MtwClientFactory
+                    .getHostAttestationsClient(mtwPropertiesForverification);
+            for (AhHost ahHost : hostsWithoutNotAfter) {
+                TrustAssertion verifyTrustAssertion = convertSamlToTrustAssertion(hostAttestationsService,
+                        ahHost.getSamlReport());
+                if (verifyTrustAssertion == null) {
+                    log.info("No verification report for host: {}", ahHost.getId());
+                    continue;
+                }
+                ahHost.setNotAfter(verifyTrustAssertion.getNotAfter());
                 try {
                     ahHostJpaController.edit(ahHost);
                 } catch (NonexistentEntityException e) {
-                    log.error("Unable to delete the host as host with id: {} does not exist in the DB ", ahHost.getId(),
-                            e);
+                    log.error("Unable to update the host as host with id: {} does not exist in the DB ",
+                            ahHost.getId(), e);
                 } catch (Exception e) {
-                    log.error("Unable to delete the host as host with id: {}", ahHost.getId(), e);
+                    log.error("Unable to update saml expiry of the host with id: {}", ahHost.getId(), e);
                 }
             }
         }
+
+        DateTime currentDateTime = new DateTime(DateTimeZone.UTC);
+        try {
+            int expiredHosts = ahHostJpaController.deleteExpiredHosts(currentDateTime.toDate());
+            log.info("Marked {} hosts as deleted as their saml expired on or before {}", expiredHosts,
+                    currentDateTime);
+        } catch (Exception e) {
+            log.error("Unable to mark the hosts with expired saml as deleted", e);
+            throw new AttestationHubException("Unable to mark the hosts with expired saml as deleted", e);
+        }
         log.info("Update of deleted status of hosts depending on the expiry of saml completed");
     }
 
@@ -330,27 +570,112 @@ public class AttestationServiceClient {
         return fmt.print(dt);
     }
 
-    private void populateMwHost(Host host, HostAttestation hostAttestation, Map<String, MWHost> hostIdToMwHostMap)
-            throws AttestationHubException {
+    private MWHost createMwHost(Host host, HostAttestation hostAttestation) throws AttestationHubException {
         HostAttestations hostAttestationVerificationService = MtwClientFactory
                 .getHostAttestationsClient(mtwPropertiesForverification);
         TrustAssertion assertion = convertSamlToTrustAssertion(hostAttestationVerificationService,
                 hostAttestation.getSaml());
         if (assertion == null) {
             log.error("Unable to verify trust assertion for host : {}", host.getId());
-            return;
+            return null;
         }
         MWHost mwHost = new MWHost();
         mwHost.setHost(host);
         mwHost.setMwHostAttestation(hostAttestation);
         String str = convertDateToUTCString(assertion.getNotAfter());
         mwHost.setSamlValidTo(str);
+        mwHost.setSamlNotAfter(assertion.getNotAfter());
         mwHost.setTrustAssertion(assertion);
         TrustReport trustReport = hostAttestation.getTrustReport();
         mwHost.setTrusted(trustReport.isTrusted());
-        hostIdToMwHostMap.put(host.getId().toString(), mwHost);
         log.info("Received attestation with ID: {} for host ID : {} and name : {}", hostAttestation.getId(),
                 host.getId(), host.getName());
+        return mwHost;
+    }
+
+    /**
+     * Stage which retrieves the host of the attestation if needed and
+     * verifies the SAML of the attestation. An attestation whose host is no
+     * longer in MTW or whose SAML cannot be verified is logged and dropped,
+     * without failing the other attestations.
+     */
+    private PipelineStage<FetchedAttestation, MWHost> newVerifyStage() {
+        int threads = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_VERIFY_THREADS,
+                DEFAULT_VERIFY_THREADS);
+        int queueSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PIPELINE_QUEUE_SIZE,
+                DEFAULT_PIPELINE_QUEUE_SIZE);
+        return new PipelineStage<>("verify", queueSize, threads, 1, new StageProcessor<FetchedAttestation, MWHost>() {
+            @Override
+            public List<MWHost> process(List<FetchedAttestation> items) throws Exception {
+                List<MWHost> mwHosts = new ArrayList<>(items.size());
+                for (FetchedAttestation item : items) {
+                    Host host = item.host;
+                    try {
+                        if (host == null) {
+                            host = retrieveHost(item.hostUuid);
+                            if (host == null) {
+                                log.error("Host {} of attestation {} not found in MTW. Dropping the attestation",
+                                        item.hostUuid, item.hostAttestation.getId());
+                                continue;
+                            }
+                        }
+                        MWHost mwHost = createMwHost(host, item.hostAttestation);
+                        if (mwHost != null) {
+                            mwHosts.add(mwHost);
+                        }
+                    } catch (Exception e) {
+                        log.error("Unable to verify attestation {} of host {}. Dropping the attestation",
+                                item.hostAttestation.getId(), item.hostUuid, e);
+                    }
+                }
+                return mwHosts;
+            }
+        });
+    }
+
+    /**
+     * Retrieves the host from MTW and caches it. A host which was cached too
+     * long ago is used as cached if it cannot be retrieved.
+     *
+     * @return the host, or null if MTW does not return it
+     */
+    private Host retrieveHost(String hostUuid) throws Exception {
+        Host host;
+        try {
+            host = MtwClientFactory.getHostsClient(mtwProperties).retrieveHost(hostUuid);
+        } catch (Exception e) {
+            Host cachedHost = HostMetadataCache.getInstance().getCachedHost(hostUuid);
+            if (cachedHost == null) {
+                throw e;
+            }
+            log.info("Unable to retrieve host {} from MTW. Using the host as cached", hostUuid, e);
+            return cachedHost;
+        }
+        if (host != null) {
+            HostMetadataCache.getInstance().put(Collections.singletonList(host));
+        }
+        return host;
+    }
+
+    private void finishStage(PipelineStage<?, ?> stage) throws AttestationHubException {
+        try {
+            stage.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AttestationHubException("Interrupted while processing host attestations", e);
+        }
+    }
+
+    private static class FetchedAttestation {
+        private final Host host;
+        private final String hostUuid;
+        private final HostAttestation hostAttestation;
+
+        private FetchedAttestation(Host host, String hostUuid, HostAttestation hostAttestation) {
+            this.host = host;
+            this.hostUuid = hostUuid;
+            this.hostAttestation = hostAttestation;
+        }
     }
 
     private void populateAttestationServiceProperties() throws AttestationHubException {
@@ -0,0 +1,85 @@
+package com.intel.attestationhub.mtwclient;
+
+import org.joda.time.DateTime;
+
+/**
+ * The time window the attestations are fetched in, which moves from the
+ * start time to the end time. A window whose page comes back full is
+ * narrowed and fetched again, down to the minimum length, and the window
+ * after a sparse page is widened, up to the maximum length.
+ *
+ * MTW has no offset or cursor to page through a window, so a window of the
+ * minimum length which still fills the page is taken as it is and the
+ * window moves past it. The attestations of that window beyond the page are
+ * not fetched; {@link #isTruncated(int)} tells the caller so.
+ */
+class FetchWindow {
+    private final DateTime end;
+    private final int pageSize;
+    private final long minMillis;
+    private final long maxMillis;
+    private DateTime start;
+    private long windowMillis;
+
+    FetchWindow(DateTime start, DateTime end, int pageSize, long initialMillis, long minMillis, long maxMillis) {
+        this.start = start;
+        this.end = end;
+        this.pageSize = pageSize;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.windowMillis = Math.max(minMillis, Math.min(maxMillis, initialMillis));
+    }
+
+    boolean hasNext() {
+        return start.isBefore(end);
+    }
+
+    DateTime getStart() {
+        return start;
+    }
+
+    DateTime getEnd() {
+        DateTime windowEnd = start.plus(windowMillis);
+        return windowEnd.isAfter(end) ? end : windowEnd;
+    }
+
+    long getMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Narrows the window if the page of the current window is full and the
+     * window is longer than the minimum
+     *
+     * @param count
+     *            number of attestations returned for the current window
+     * @return true if the window was narrowed and is to be fetched again
+     */
+    boolean narrow(int count) {
+        if (count < pageSize || windowMillis <= minMillis) {
+            return false;
+        }
+        windowMillis = Math.max(minMillis, windowMillis / 2);
+        return true;
+    }
+
+    /**
+     * @return true if the page of the current window is full even though the
+     *         window cannot be narrowed, so attestations of the window may
+     *         be missing
+     */
+    boolean isTruncated(int count) {
+        return count >= pageSize && windowMillis <= minMillis;
+    }
+
+    /**
+     * Moves to the window after the current one, widening it if the page of
+     * the current window was sparse
+     */
+    void advance(int count) {
+        start = getEnd();
+        if (count < pageSize / 4) {
+            windowMillis = Math.min(maxMillis, windowMillis * 2);
+        }
+    }
+}
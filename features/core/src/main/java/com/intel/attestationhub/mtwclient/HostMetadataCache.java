@@ -0,0 +1,196 @@
+package com.intel.attestationhub.mtwclient;
+
+import com.intel.attestationhub.mapper.HostMapper;
+import com.intel.mtwilson.as.rest.v2.model.Host;
+import com.intel.mtwilson.as.rest.v2.model.HostCollection;
+import com.intel.mtwilson.as.rest.v2.model.HostFilterCriteria;
+import com.intel.mtwilson.attestation.client.jaxrs.Hosts;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+import com.intel.mtwilson.attestationhub.controller.AhHostJpaController;
+import com.intel.mtwilson.attestationhub.data.AhHost;
+import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+import com.intel.mtwilson.attestationhub.service.PersistenceServiceFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host details from MTW, keyed by host UUID, so that an attestation can be
+ * matched with its host without retrieving the host from MTW. The cache is
+ * seeded from ah_host on first use. Hosts which are not cached, or were
+ * cached more than attestation-hub.host.cache.ttl minutes ago, are left to
+ * the caller to retrieve from MTW, so that they can be retrieved in
+ * parallel. Only when more than attestation-hub.host.cache.lookup.limit hosts
+ * are not cached at all are all the hosts searched in MTW at once, as MTW
+ * cannot search a list of hosts. Hosts cached too long ago never cause that
+ * search, and are still available through {@link #getCachedHost(String)} in
+ * case they cannot be retrieved.
+ */
+public class HostMetadataCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostMetadataCache.class);
+    private static final int DEFAULT_TTL_MINUTES = 60;
+    private static final int DEFAULT_LOOKUP_LIMIT = 20;
+    private static final HostMetadataCache instance = new HostMetadataCache();
+
+    private final Map<String, CachedHost> hosts = new ConcurrentHashMap<>();
+    private volatile boolean seeded = false;
+
+    private HostMetadataCache() {
+    }
+
+    public static HostMetadataCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Caches the given hosts, as just received from MTW
+     */
+    public void put(Collection<Host> hostsToCache) {
+        if (hostsToCache == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Host host : hostsToCache) {
+            if (host != null && host.getId() != null) {
+                hosts.put(host.getId().toString(), new CachedHost(host, now));
+            }
+        }
+    }
+
+    /**
+     * @return the host with the given UUID as cached, however long ago, or
+     *         null if it is not cached
+     */
+    public Host getCachedHost(String hostUuid) {
+        CachedHost cachedHost = hostUuid == null ? null : hosts.get(hostUuid);
+        return cachedHost == null ? null : cachedHost.host;
+    }
+
+    /**
+     * @return the cached hosts with the given UUIDs. Hosts which are not
+     *         cached, or were cached too long ago, are left out, unless they
+     *         were found by searching all the hosts in MTW.
+     * @throws AttestationHubException
+     *             if MTW could not be reached
+     */
+    public Map<String, Host> getHosts(Collection<String> hostUuids, Hosts hostsService)
+            throws AttestationHubException {
+        seed();
+        Map<String, Host> found = new HashMap<>(hostUuids.size());
+        Set<String> notCached = new HashSet<>();
+        Map<String, Host> expired = new HashMap<>();
+        long oldest = System.currentTimeMillis() - getTtl();
+        for (String hostUuid : hostUuids) {
+            CachedHost cachedHost = hostUuid == null ? null : hosts.get(hostUuid);
+            if (cachedHost == null) {
+                if (hostUuid != null) {
+                    notCached.add(hostUuid);
+                }
+            } else if (cachedHost.cachedAt < oldest) {
+                expired.put(hostUuid, cachedHost.host);
+            } else {
+                found.put(hostUuid, cachedHost.host);
+            }
+        }
+        if (notCached.isEmpty() && expired.isEmpty()) {
+            return found;
+        }
+
+        if (notCached.size() > getLookupLimit()) {
+            log.info("{} hosts not cached. Searching the hosts in MTW", notCached.size());
+            searchAllHosts(hostsService);
+            for (String hostUuid : notCached) {
+                CachedHost cachedHost = hosts.get(hostUuid);
+                if (cachedHost != null) {
+                    found.put(hostUuid, cachedHost.host);
+                } else {
+                    log.info("Host {} not found in MTW", hostUuid);
+                }
+            }
+            // the search refreshed the expired hosts which are still in MTW
+            for (Map.Entry<String, Host> entry : expired.entrySet()) {
+                CachedHost cachedHost = hosts.get(entry.getKey());
+                found.put(entry.getKey(), cachedHost != null ? cachedHost.host : entry.getValue());
+            }
+            return found;
+        }
+
+        log.debug("{} hosts not cached and {} cached too long ago are left to retrieve from MTW",
+                notCached.size(), expired.size());
+        return found;
+    }
+
+    private void searchAllHosts(Hosts hostsService) throws AttestationHubException {
+        HostFilterCriteria criteria = new HostFilterCriteria();
+        criteria.filter = false;
+        HostCollection hostCollection;
+        try {
+            hostCollection = hostsService.searchHosts(criteria);
+        } catch (Exception e) {
+            log.error("Error searching the hosts in MTW", e);
+            throw new AttestationHubException(e);
+        }
+        if (hostCollection != null) {
+            put(hostCollection.getHosts());
+        }
+    }
+
+    /**
+     * Loads the hosts stored in ah_host, once
+     */
+    private void seed() {
+        if (seeded) {
+            return;
+        }
+        synchronized (this) {
+            if (seeded) {
+                return;
+            }
+            try {
+                AhHostJpaController ahHostController = PersistenceServiceFactory.getInstance()
+                        .getHostController();
+                List<AhHost> ahHosts = ahHostController.findAhHostMetadata();
+                long now = System.currentTimeMillis();
+                for (AhHost ahHost : ahHosts) {
+                    if (!hosts.containsKey(ahHost.getId())) {
+                        hosts.put(ahHost.getId(), new CachedHost(HostMapper.mapAhHostToCitHost(ahHost), now));
+                    }
+                }
+                log.info("Cached {} hosts stored in the hub", ahHosts.size());
+            } catch (Exception e) {
+                log.error("Unable to load the stored hosts. Hosts are searched in MTW", e);
+            }
+            seeded = true;
+        }
+    }
+
+    private long getTtl() {
+        int ttl = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_HOST_CACHE_TTL, DEFAULT_TTL_MINUTES);
+        if (ttl <= 0) {
+            ttl = DEFAULT_TTL_MINUTES;
+        }
+        return ttl * 60 * 1000L;
+    }
+
+    private int getLookupLimit() {
+        int limit = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_HOST_CACHE_LOOKUP_LIMIT,
+                DEFAULT_LOOKUP_LIMIT);
+        return limit < 0 ? DEFAULT_LOOKUP_LIMIT : limit;
+    }
+
+    private static class CachedHost {
+        private final Host host;
+        private final long cachedAt;
+
+        private CachedHost(Host host, long cachedAt) {
+            this.host = host;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -1,15 +1,80 @@
 package com.intel.attestationhub.mtwclient;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
 
 import com.intel.mtwilson.attestation.client.jaxrs.HostAttestations;
 import com.intel.mtwilson.attestation.client.jaxrs.Hosts;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 
+/**
+ * Hands out MTW clients which are built once per configuration and reused
+ * across calls and threads. Building a client loads the keystore and TLS
+ * policy and sets up a new JAX-RS client, so a cached client is rebuilt only
+ * when the properties it was built with or the keystore file change.
+ */
 public class MtwClientFactory {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MtwClientFactory.class);
+    private static final String KEYSTORE_PROPERTY = "mtwilson.api.keystore";
+    private static final int DEFAULT_MAX_KEEP_ALIVE_CONNECTIONS = 10;
+    private static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    private static final int DEFAULT_READ_TIMEOUT_SECONDS = 60;
 
-    public static Hosts getHostsClient(Properties properties) throws AttestationHubException {
+    private static final Map<String, CachedClient<Hosts>> hostsClients = new HashMap<>();
+    private static final Map<String, CachedClient<HostAttestations>> hostAttestationsClients = new HashMap<>();
+
+    /**
+     * The MTW clients use HttpURLConnection, which keeps only 5 idle
+     * connections per host alive by default. This allows one for each fetch
+     * thread unless the JVM was started with its own limit. It takes effect
+     * only if called before the first HTTP connection of the JVM.
+     */
+    static void configureConnectionReuse() {
+	if (System.getProperty("http.maxConnections") == null) {
+	    int maxConnections = Math.max(DEFAULT_MAX_KEEP_ALIVE_CONNECTIONS,
+		    AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_FETCH_THREADS, 0));
+	    System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+	}
+    }
+
+    /**
+     * The MTW clients set no timeouts on their HttpURLConnections, which
+     * then wait forever on an unresponsive MTW. This sets the JVM defaults
+     * from attestation-hub.fetch.connect.timeout and
+     * attestation-hub.fetch.timeout, unless the JVM was started with its own.
+     * Like the connection reuse, it takes effect only if called before the
+     * first HTTP connection of the JVM.
+     */
+    static void configureTimeouts() {
+	setDefaultTimeout("sun.net.client.defaultConnectTimeout", Constants.ATTESTATION_HUB_FETCH_CONNECT_TIMEOUT,
+		DEFAULT_CONNECT_TIMEOUT_SECONDS);
+	setDefaultTimeout("sun.net.client.defaultReadTimeout", Constants.ATTESTATION_HUB_FETCH_TIMEOUT,
+		DEFAULT_READ_TIMEOUT_SECONDS);
+    }
+
+    private static void setDefaultTimeout(String systemProperty, String key, int defaultSeconds) {
+	if (System.getProperty(systemProperty) != null) {
+	    return;
+	}
+	int timeout = AttestationHubConfigUtil.getInteger(key, defaultSeconds);
+	if (timeout <= 0) {
+	    timeout = defaultSeconds;
+	}
+	System.setProperty(systemProperty, String.valueOf(timeout * 1000));
+    }
+
+    public static synchronized Hosts getHostsClient(Properties properties) throws AttestationHubException {
+	String key = getConfigurationKey(properties);
+	long keystoreVersion = getKeystoreVersion(properties);
+	CachedClient<Hosts> cachedClient = hostsClients.get(key);
+	if (cachedClient != null && cachedClient.keystoreVersion == keystoreVersion) {
+	    return cachedClient.client;
+	}
 	Hosts hostsService;
 	try {
 	    hostsService = new Hosts(properties);
@@ -19,10 +84,18 @@ public class MtwClientFactory {
 	    log.error(errorMsg, e);
 	    throw new AttestationHubException(errorMsg, e);
 	}
+	hostsClients.put(key, new CachedClient<>(hostsService, keystoreVersion));
 	return hostsService;
     }
 
-    public static HostAttestations getHostAttestationsClient(Properties properties) throws AttestationHubException {
+    public static synchronized HostAttestations getHostAttestationsClient(Properties properties)
+	    throws AttestationHubException {
+	String key = getConfigurationKey(properties);
+	long keystoreVersion = getKeystoreVersion(properties);
+	CachedClient<HostAttestations> cachedClient = hostAttestationsClients.get(key);
+	if (cachedClient != null && cachedClient.keystoreVersion == keystoreVersion) {
+	    return cachedClient.client;
+	}
 	HostAttestations hostAttestationsService;
 	try {
 	    hostAttestationsService = new HostAttestations(properties);
@@ -32,6 +105,39 @@ public class MtwClientFactory {
 	    log.error(errorMsg, e);
 	    throw new AttestationHubException(errorMsg, e);
 	}
+	hostAttestationsClients.put(key, new CachedClient<>(hostAttestationsService, keystoreVersion));
 	return hostAttestationsService;
     }
+
+    /**
+     * The key covers the default properties as well, since the verification
+     * properties are layered over the connection properties
+     */
+    private static String getConfigurationKey(Properties properties) {
+	StringBuilder key = new StringBuilder();
+	for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+	    key.append(name).append('=').append(properties.getProperty(name)).append('\n');
+	}
+	return key.toString();
+    }
+
+    private static long getKeystoreVersion(Properties properties) {
+	String keystore = properties.getProperty(KEYSTORE_PROPERTY);
+	if (keystore == null) {
+	    return 0L;
+	}
+	File keystoreFile = new File(keystore);
+	// lastModified is 0 for a missing file
+	return keystoreFile.lastModified() ^ (keystoreFile.length() << 32);
+    }
+
+    private static class CachedClient<T> {
+	private final T client;
+	private final long keystoreVersion;
+
+	private CachedClient(T client, long keystoreVersion) {
+	    this.client = client;
+	    this.keystoreVersion = keystoreVersion;
+	}
+    }
 }
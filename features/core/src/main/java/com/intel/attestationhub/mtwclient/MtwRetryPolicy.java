@@ -0,0 +1,128 @@
+package com.intel.attestationhub.mtwclient;
+
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Decides when MTW is called again after a failure. The delay before the next
+ * attempt doubles with each consecutive failure, from
+ * attestation-hub.retry.delay up to attestation-hub.retry.max.delay seconds,
+ * with a random jitter of up to half the delay.
+ *
+ * After attestation-hub.retry.failure.threshold consecutive failures the
+ * circuit opens and MTW is not called until the next attempt is due. A
+ * successful call closes the circuit. If MTW has been failing for
+ * attestation-hub.mtw.outage.timeout minutes, the outage is reported once so
+ * that the hosts can be marked as deleted.
+ *
+ * The policy only keeps time; nothing waits on it. The scheduler asks it
+ * whether a run may call MTW and when to retry.
+ */
+public class MtwRetryPolicy {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MtwRetryPolicy.class);
+    private static final int DEFAULT_RETRY_DELAY_SECONDS = 30;
+    private static final int DEFAULT_RETRY_MAX_DELAY_SECONDS = 600;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final int DEFAULT_OUTAGE_TIMEOUT_MINUTES = 10;
+    private static final MtwRetryPolicy instance = new MtwRetryPolicy();
+
+    private final Random random = new Random();
+    private int consecutiveFailures = 0;
+    private long firstFailureTime = 0;
+    private long nextAttemptTime = 0;
+    private boolean outageReported = false;
+
+    MtwRetryPolicy() {
+    }
+
+    public static MtwRetryPolicy getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return false while the circuit is open and the next attempt is not due
+     */
+    public synchronized boolean allowRequest() {
+        if (consecutiveFailures < getFailureThreshold()) {
+            return true;
+        }
+        return currentTimeMillis() >= nextAttemptTime;
+    }
+
+    public synchronized void recordSuccess() {
+        if (consecutiveFailures > 0) {
+            log.info("MTW is reachable again after {} failed attempts", consecutiveFailures);
+        }
+        consecutiveFailures = 0;
+        firstFailureTime = 0;
+        nextAttemptTime = 0;
+        outageReported = false;
+    }
+
+    public synchronized void recordFailure() {
+        long now = currentTimeMillis();
+        if (consecutiveFailures == 0) {
+            firstFailureTime = now;
+        }
+        consecutiveFailures++;
+        long maxDelay = getPositiveInteger(Constants.ATTESTATION_HUB_RETRY_MAX_DELAY,
+                DEFAULT_RETRY_MAX_DELAY_SECONDS) * 1000L;
+        long delay = getPositiveInteger(Constants.ATTESTATION_HUB_RETRY_DELAY, DEFAULT_RETRY_DELAY_SECONDS)
+                * 1000L;
+        for (int i = 1; i < consecutiveFailures && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        long jitter = (long) (random.nextDouble() * (delay / 2));
+        nextAttemptTime = now + delay + jitter;
+        log.info("MTW call failed {} times in a row. Next attempt at {}", consecutiveFailures,
+                new Date(nextAttemptTime));
+    }
+
+    /**
+     * @return milliseconds until the next attempt after a failure, or -1 if
+     *         the last call succeeded
+     */
+    public synchronized long getRetryDelay() {
+        if (consecutiveFailures == 0) {
+            return -1;
+        }
+        return Math.max(0, nextAttemptTime - currentTimeMillis());
+    }
+
+    /**
+     * @return true the first time it is called after MTW has been failing for
+     *         longer than the outage timeout
+     */
+    public synchronized boolean reportSustainedOutage() {
+        if (consecutiveFailures == 0 || outageReported) {
+            return false;
+        }
+        long outageTimeout = getPositiveInteger(Constants.ATTESTATION_HUB_MTW_OUTAGE_TIMEOUT,
+                DEFAULT_OUTAGE_TIMEOUT_MINUTES) * 60 * 1000L;
+        if (currentTimeMillis() - firstFailureTime < outageTimeout) {
+            return false;
+        }
+        outageReported = true;
+        return true;
+    }
+
+    /**
+     * Overridden by the tests to control the time
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private int getFailureThreshold() {
+        return getPositiveInteger(Constants.ATTESTATION_HUB_RETRY_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD);
+    }
+
+    private static int getPositiveInteger(String key, int defaultValue) {
+        int value = AttestationHubConfigUtil.getInteger(key, defaultValue);
+        return value <= 0 ? defaultValue : value;
+    }
+}
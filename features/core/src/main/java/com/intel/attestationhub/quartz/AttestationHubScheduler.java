@@ -1,22 +1,48 @@
 package com.intel.attestationhub.quartz;
 
 import com.intel.attestationhub.manager.PluginManager;
+import com.intel.attestationhub.mtwclient.MtwRetryPolicy;
 import com.intel.dcsg.cpg.console.AbstractCommand;
+import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
 import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Entry class for kicking off the poller. This class is started from
  * attestation-hub start command
  *
+ * The poll and the push to the tenants run at a fixed rate, each run delayed
+ * by a random jitter of up to attestation-hub.poll.jitter seconds. A run that
+ * comes up while the previous one is still in progress is skipped. A run can
+ * also be requested out of cycle with the trigger file, which the web
+ * service creates and which is checked every few seconds.
+ *
  * @author Siddharth
  */
 public class AttestationHubScheduler extends AbstractCommand {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationHubScheduler.class);
+    private static final int TRIGGER_CHECK_INTERVAL_SECONDS = 5;
+    private static final int PUBLISH_DELAY_SECONDS = 10;
     private int pollInterval = 0;
     private final int defaultPollInterval = 2;
+    private int pollJitter = 0;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean publishPending = new AtomicBoolean(false);
+    private final Random random = new Random();
+    private ScheduledExecutorService timer;
+    private ExecutorService runner;
 
     private void init() {
         int millisInMinute = 60 * 1000;
@@ -34,36 +60,169 @@ public class AttestationHubScheduler extends AbstractCommand {
         log.info("Poll interval is {} mins", pollInterval);
 
         pollInterval = millisInMinute * pollInterval;
+
+        pollJitter = Math.max(0, AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_POLL_JITTER, 0)) * 1000;
+        log.info("Poll jitter is up to {} millis", pollJitter);
     }
 
     @Override
     public void execute(String[] args)  {
         log.info("Scheduling attestation service poller");
         init();
-        PluginManager pluginManager = PluginManager.getInstance();
-        while (true) {
-            AttestationServicePollerJob attestationServicePollerJob ;
-            try {
-                attestationServicePollerJob = new AttestationServicePollerJob();
-            } catch (AttestationHubException e) {
-                log.error("Error while initializing attestation poller. Going to try again as part of regular poll", pollInterval, e);
-                sleep(pollInterval);
-                continue;
-            }
-            log.info("Executing scheduled process of pulling data from attestation service and pushing to tenants");
-            attestationServicePollerJob.execute();
-            pluginManager.synchAttestationInfo();
-            sleep(pollInterval);
+        timer = Executors.newSingleThreadScheduledExecutor(newThreadFactory("attestation-hub-scheduler"));
+        runner = Executors.newSingleThreadExecutor(newThreadFactory("attestation-hub-poller"));
+        try {
+            SamlExpiryScheduler.getInstance().start(new Runnable() {
+                @Override
+                public void run() {
+                    requestPublish();
+                }
+            });
+        } catch (Exception e) {
+            log.error("Error starting the SAML expiry scheduler. Expired hosts are marked as deleted by the poller", e);
         }
-    }
 
-    private void sleep(int sleepInterval){
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                requestRun(pollJitter == 0 ? 0 : random.nextInt(pollJitter + 1));
+            }
+        }, 0, pollInterval, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkTrigger();
+            }
+        }, TRIGGER_CHECK_INTERVAL_SECONDS, TRIGGER_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
         try {
-            log.info("Waiting for {} millis", sleepInterval);
-            Thread.sleep(sleepInterval);
+            timer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             log.error("Error in thread running the scheduler tasks", e);
+        } finally {
+            timer.shutdownNow();
+            runner.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts a run after the given delay, unless a run is already pending or
+     * in progress
+     */
+    private void requestRun(long delay) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Previous run of the poller is still in progress. Skipping this run");
+            return;
+        }
+        final Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runPollerAndPush();
+                } catch (Exception e) {
+                    log.error("Error in the scheduled run of the poller", e);
+                } finally {
+                    running.set(false);
+                    // scheduled only now, as a retry coming up while this run
+                    // is in progress would be skipped
+                    scheduleRetry();
+                }
+            }
+        };
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runner.execute(run);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pushes to the tenants a few seconds from now, unless a push is already
+     * pending. Requests coming in the meantime are served by that push. The
+     * push runs on the poller thread, after any run in progress.
+     */
+    private void requestPublish() {
+        if (!publishPending.compareAndSet(false, true)) {
+            return;
         }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runner.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        publishPending.set(false);
+                        try {
+                            log.info("Pushing hosts with expired SAML to tenants");
+                            PluginManager.getInstance().synchAttestationInfo();
+                        } catch (Exception e) {
+                            log.error("Error pushing expired hosts to tenants", e);
+                        }
+                    }
+                });
+            }
+        }, PUBLISH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void runPollerAndPush() {
+        MtwRetryPolicy retryPolicy = MtwRetryPolicy.getInstance();
+        if (retryPolicy.allowRequest()) {
+            pollAttestationService();
+        } else {
+            log.info("Attestation service calls suspended after repeated failures. Next attempt in {} millis",
+                    retryPolicy.getRetryDelay());
+        }
+        log.info("Pushing data to tenants");
+        PluginManager.getInstance().synchAttestationInfo();
+    }
+
+    /**
+     * Retries a failed poll after the backoff, if that is before the next run
+     */
+    private void scheduleRetry() {
+        long retryDelay = MtwRetryPolicy.getInstance().getRetryDelay();
+        if (retryDelay >= 0 && retryDelay < pollInterval) {
+            log.info("Retrying the poll of the attestation service in {} millis", retryDelay);
+            requestRun(retryDelay);
+        }
+    }
+
+    private void pollAttestationService() {
+        AttestationServicePollerJob attestationServicePollerJob;
+        try {
+            attestationServicePollerJob = new AttestationServicePollerJob();
+        } catch (AttestationHubException e) {
+            log.error("Error while initializing attestation poller. Going to try again after a backoff", e);
+            AttestationServicePollerJob.handleAttestationServiceFailure();
+            return;
+        }
+        log.info("Executing scheduled process of pulling data from attestation service");
+        attestationServicePollerJob.execute();
+    }
+
+    private void checkTrigger() {
+        File triggerFile = new File(
+                Folders.configuration() + File.separator + Constants.ATTESTATION_HUB_SCHEDULER_TRIGGER_FILE_NAME);
+        if (triggerFile.exists()) {
+            if (!triggerFile.delete()) {
+                log.error("Unable to remove the scheduler trigger file {}", triggerFile.getAbsolutePath());
+                return;
+            }
+            log.info("Run of the poller requested out of cycle");
+            requestRun(0);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
 }
@@ -2,27 +2,44 @@ package com.intel.attestationhub.quartz;
 
 import com.intel.attestationhub.api.MWHost;
 import com.intel.attestationhub.mtwclient.AttestationServiceClient;
+import com.intel.attestationhub.mtwclient.MtwRetryPolicy;
+import com.intel.attestationhub.pipeline.PipelineStage;
+import com.intel.attestationhub.pipeline.StageProcessor;
 import com.intel.attestationhub.service.AttestationHubService;
 import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
 import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.as.rest.v2.model.Host;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+import com.intel.mtwilson.attestationhub.controller.AhWatermarkJpaController;
+import com.intel.mtwilson.attestationhub.data.AhWatermark;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+import com.intel.mtwilson.attestationhub.service.PersistenceServiceFactory;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class AttestationServicePollerJob {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationServicePollerJob.class);
     private AttestationServiceClient attestationServiceClient = null;
-    private File lastRunDateTimeFile;
-    private static boolean isRetry = false;
+    private static final String ATTESTATION_WATERMARK = "mtw_host_attestations";
+    private static final String LAST_RUN_FILE_NAME = "HubSchedulerRun.txt";
+    private static final int DEFAULT_PERSIST_BATCH_SIZE = 500;
+    private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_WATERMARK_OVERLAP_SECONDS = 60;
 
     public AttestationServicePollerJob() throws AttestationHubException {
         attestationServiceClient = AttestationServiceClient.getInstance();
@@ -30,57 +47,60 @@ public class AttestationServicePollerJob {
 
     public void execute() {
         log.info("AttestationServicePollerJob.execute - Poller run started at {}", new Date());
-	/*
-     * Fetch all the hosts from MTW
-	 */
-        String lastRunDateTimeFileName = Folders.configuration() + File.separator + "HubSchedulerRun.txt";
-        lastRunDateTimeFile = new File(lastRunDateTimeFileName);
-        boolean isFirstRun = false;
-        if (lastRunDateTimeFile.exists()) {
-            String lastDateTimeFromLastRunFile = readDateTimeFromLastRunFile();
-            if (StringUtils.isBlank(lastDateTimeFromLastRunFile)) {
-                isFirstRun = true;
-            }
-        } else {
-            isFirstRun = true;
+        Date runStartTime = new Date();
+        AhWatermarkJpaController watermarkController = PersistenceServiceFactory.getInstance()
+                .getWatermarkController();
+        AhWatermark ahWatermark;
+        try {
+            ahWatermark = watermarkController.findAhWatermark(ATTESTATION_WATERMARK);
+        } catch (Exception e) {
+            log.error("Poller.execute: Error reading the attestation watermark from the DB", e);
+            logPollerRunComplete();
+            return;
         }
-        DateTime dt = new DateTime(DateTimeZone.UTC);
-        DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
-        String str = fmt.print(dt);
-        Map<String, MWHost> hostAttestationsMap = null;
+        if (ahWatermark == null) {
+            ahWatermark = readWatermarkFromLastRunFile();
+        }
+
+        /*
+         * The hosts are saved in the DB in batches as their attestations are
+         * fetched and verified
+         */
+        IngestProgress progress = new IngestProgress();
+        PipelineStage<MWHost, Void> persistStage = newPersistStage(progress);
+        boolean fetched;
+        boolean isFirstRun = ahWatermark.getWatermark() == null;
         if (isFirstRun) {
             log.info("Its the first run for attestation hub. Init data");
-            hostAttestationsMap = initData();
-            try {
-                lastRunDateTimeFile.createNewFile();
-            } catch (IOException e) {
-                log.error("Error creating lastRunDateTimeFile", e);
-            }
+            fetched = initData(persistStage);
             log.info("Init data complete");
         } else {
             log.info("init data was done earlier. Update data");
-            hostAttestationsMap = updateData();
+            fetched = updateData(ahWatermark, persistStage);
             log.info("Update of data after pulling host attestations from MTW complete");
 
         }
 
-        if (hostAttestationsMap == null) {
+        if (!fetched) {
             log.error(
                     "Attestation data not received from MTW. Some error receiving host attestations data to be pushed in Attestation Hub DB");
             return;
         }
-
-	/*
-	 * Add the hosts in the DB
-	 */
-        AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
-        try {
-            attestationHubService.saveHosts(hostAttestationsMap);
-        } catch (AttestationHubException e) {
-            log.error("Poller.execute: Error saving hosts from MTW", e);
+        // attestations the verify stage could not use are dropped there; only
+        // hosts which could not be saved keep the watermark where it is
+        if (persistStage.getStageFailed() > 0) {
+            log.error("Poller.execute: Error saving {} hosts from MTW", persistStage.getStageFailed());
             logPollerRunComplete();
             return;
         }
+        log.info("{} of the host attestations received were unchanged and not saved", progress.getUnchangedHosts());
+        advanceWatermark(ahWatermark, progress, isFirstRun ? runStartTime : null);
+        try {
+            watermarkController.saveAhWatermark(ahWatermark);
+            log.info("Attestation watermark advanced to {}", ahWatermark.getWatermark());
+        } catch (Exception e) {
+            log.error("Poller.execute: Error saving the attestation watermark", e);
+        }
 
         // Delete hosts whose SAML has exceeded the timeout
         try {
@@ -91,134 +111,188 @@ public class AttestationServicePollerJob {
             logPollerRunComplete();
             return;
         }
-        log.info("Updating the file with the latest run date: {}", str);
-        writeCurrentTimeToLastRunFile(str);
 
         logPollerRunComplete();
     }
 
-    private Map<String, MWHost> updateData() {
-        Map<String, MWHost> hostAttestationsMap = null;
-        String lastDateTimeFromLastRunFile = readDateTimeFromLastRunFile();
-        if (StringUtils.isBlank(lastDateTimeFromLastRunFile)) {
-            log.info("the last date time is not read. Doing an init in update");
-            hostAttestationsMap = initData();
-            return hostAttestationsMap;
+    /**
+     * Saves the hosts passed on by the verify stage, a batch at a time, and
+     * schedules the expiry of their SAML
+     */
+    private PipelineStage<MWHost, Void> newPersistStage(final IngestProgress progress) {
+        int batchSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_DB_BATCH_SIZE,
+                DEFAULT_PERSIST_BATCH_SIZE);
+        int queueSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PIPELINE_QUEUE_SIZE,
+                DEFAULT_PIPELINE_QUEUE_SIZE);
+        final AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+        // a single worker, so that hosts sharing a hardware uuid are not
+        // saved concurrently
+        return new PipelineStage<>("persist", queueSize, 1, batchSize, new StageProcessor<MWHost, Void>() {
+            @Override
+            public List<Void> process(List<MWHost> mwHosts) throws Exception {
+                Map<String, MWHost> hostAttestationsMap = new LinkedHashMap<>(mwHosts.size());
+                for (MWHost mwHost : mwHosts) {
+                    if (mwHost.getHost() == null || mwHost.getHost().getId() == null) {
+                        log.error("Skipping attestation {} without a host", mwHost.getMwHostAttestation() == null
+                                ? null : mwHost.getMwHostAttestation().getId());
+                        continue;
+                    }
+                    hostAttestationsMap.put(mwHost.getHost().getId().toString(), mwHost);
+                }
+                attestationHubService.saveHosts(hostAttestationsMap);
+                progress.addAll(new ArrayList<>(hostAttestationsMap.values()));
+                // the expiry of an unchanged host is already scheduled
+                Map<String, MWHost> changedHosts = new LinkedHashMap<>(mwHosts.size());
+                for (Map.Entry<String, MWHost> entry : hostAttestationsMap.entrySet()) {
+                    if (!entry.getValue().isUnchanged()) {
+                        changedHosts.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                SamlExpiryScheduler.getInstance().schedule(changedHosts);
+                return null;
+            }
+        });
+    }
+
+    private boolean updateData(AhWatermark ahWatermark, PipelineStage<MWHost, Void> persistStage) {
+        boolean fetched;
+        // Process the attestations received since the watermark, going back
+        // by the overlap window for the attestations committed late
+        DateTime fromDate = new DateTime(ahWatermark.getWatermark().getTime(), DateTimeZone.UTC)
+                .minusSeconds(getWatermarkOverlap());
+        String fromDateStr = ISODateTimeFormat.dateTime().print(fromDate);
+        Set<String> recentAttestationIds = new HashSet<>();
+        if (StringUtils.isNotBlank(ahWatermark.getRecentIds())) {
+            recentAttestationIds.addAll(Arrays.asList(ahWatermark.getRecentIds().split(",")));
         }
-        // Process the attestations received in the time window
 
         try {
-            hostAttestationsMap = attestationServiceClient.fetchHostAttestations(lastDateTimeFromLastRunFile);
+            fetched = attestationServiceClient.fetchHostAttestations(fromDateStr, recentAttestationIds, persistStage);
+            MtwRetryPolicy.getInstance().recordSuccess();
         } catch (AttestationHubException e) {
-            log.error("Poller.execute: Error fetching host attestations created since {} from MTW",
-                    lastDateTimeFromLastRunFile, e);
-            if (e.getMessage().indexOf("java.net.ConnectException: Connection refused") != 1) {
-                waitForAttestationServiceAndRetry();
-            }
+            log.error("Poller.execute: Error fetching host attestations created since {} from MTW", fromDateStr, e);
+            handleAttestationServiceFailure();
             logPollerRunComplete();
-            return null;
+            return false;
         }
 
-        return hostAttestationsMap;
+        return fetched;
     }
 
-    private Map<String, MWHost> initData() {
+    private boolean initData(PipelineStage<MWHost, Void> persistStage) {
         List<Host> allHosts;
 
         try {
             allHosts = attestationServiceClient.fetchHosts();
+            MtwRetryPolicy.getInstance().recordSuccess();
             if (allHosts == null) {
                 log.info("AttestationServicePollerJob.execute - No hosts returned");
                 logPollerRunComplete();
-                return null;
+                return false;
             } else {
                 log.info("AttestationServicePollerJob.execute - Fetched {} hosts", allHosts.size());
             }
         } catch (AttestationHubException e) {
             log.error("AttestationServicePollerJob.execute - Error fetching hosts from MTW", e);
-            if (e.getMessage().indexOf("java.net.ConnectException: Connection refused") != 1) {
-                waitForAttestationServiceAndRetry();
-            }
+            handleAttestationServiceFailure();
             logPollerRunComplete();
-            return null;
+            return false;
         }
 
 	/*
 	 * Fetch the host attestations
 	 */
         log.info("AttestationServicePollerJob.execute - Fetching attestations for the above hosts");
-        Map<String, MWHost> hostAttestationsMap;
         try {
-            hostAttestationsMap = attestationServiceClient.fetchHostAttestations(allHosts);
+            attestationServiceClient.fetchHostAttestations(allHosts, persistStage);
         } catch (AttestationHubException e) {
             log.error("Poller.execute: Error fetching SAMLS for hosts from MTW", e);
-            if (e.getMessage().indexOf("java.net.ConnectException: Connection refused") != 1) {
-                waitForAttestationServiceAndRetry();
-            }
+            handleAttestationServiceFailure();
             logPollerRunComplete();
-            return null;
+            return false;
         }
 
-        return hostAttestationsMap;
+        return true;
     }
 
-    private void waitForAttestationServiceAndRetry() {
-
-        if (isRetry) {
-            // MTW has failed again. Mark all the hosts as inactive
-            log.info("Since exception occurred again, marking all the hosts as deleted");
+    /**
+     * Records the failed call to MTW, so that the next call is made after a
+     * backoff. Once MTW has been unavailable for longer than the outage
+     * timeout, the hosts are marked as deleted, as their attestations can no
+     * longer be refreshed.
+     */
+    static void handleAttestationServiceFailure() {
+        MtwRetryPolicy retryPolicy = MtwRetryPolicy.getInstance();
+        retryPolicy.recordFailure();
+        if (retryPolicy.reportSustainedOutage()) {
+            log.info("Attestation service unavailable beyond the outage timeout, marking all the hosts as deleted");
             AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
             try {
                 attestationHubService.markAllHostsAsDeleted();
             } catch (AttestationHubException e) {
                 log.error("Unable to mark the hosts as deleted", e);
             }
-            isRetry = false;
-        } else {
-            log.info("Going to wait for 3 mins before retrying");
-            try {
-                Thread.sleep(3 * 60 * 1000);
-            } catch (InterruptedException e) {
-                log.error("Error in sleeping for retrying connection to MTW", e);
-            }
-
-            isRetry = true;
-            log.info("Calling the fetch methods again....");
-            execute();
         }
     }
 
-    private void writeCurrentTimeToLastRunFile(String str) {
-        // 2016-02-27T00:00:00Z
-
-        if (!lastRunDateTimeFile.exists()) {
-            return;
+    /**
+     * Moves the watermark to the latest SAML issue time of the attestations
+     * saved in this run. The ids of the attestations within the overlap
+     * window of the new watermark are kept, so that they are skipped when they
+     * are fetched again. A full fetch has to cover the attestations created
+     * while it ran, so its watermark is no later than the start of the run.
+     */
+    private void advanceWatermark(AhWatermark ahWatermark, IngestProgress progress, Date fullFetchStartTime) {
+        Date oldWatermark = ahWatermark.getWatermark();
+        Date newWatermark = progress.getLatestIssueDate();
+        if (fullFetchStartTime != null && (newWatermark == null || newWatermark.after(fullFetchStartTime))) {
+            newWatermark = fullFetchStartTime;
         }
-        FileOutputStream fileOutputStream = null;
-        try {
-            fileOutputStream = new FileOutputStream(lastRunDateTimeFile);
-            byte[] contentInBytes = str.getBytes();
-            fileOutputStream.write(contentInBytes);
-            fileOutputStream.flush();
-            fileOutputStream.close();
-        } catch (FileNotFoundException e) {
-            log.error("Unable to locate last run file", e);
-        } catch (IOException e) {
-            log.error("Unable to write to last run file", e);
-        } finally {
-            if (fileOutputStream != null) {
-                try {
-                    fileOutputStream.close();
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+        if (newWatermark == null || (oldWatermark != null && !newWatermark.after(oldWatermark))) {
+            newWatermark = oldWatermark;
+        }
+        long overlapStart = newWatermark.getTime() - getWatermarkOverlap() * 1000L;
+        Set<String> recentAttestationIds = new LinkedHashSet<>();
+        if (oldWatermark != null && oldWatermark.getTime() > overlapStart
+                && StringUtils.isNotBlank(ahWatermark.getRecentIds())) {
+            recentAttestationIds.addAll(Arrays.asList(ahWatermark.getRecentIds().split(",")));
+        }
+        for (Map.Entry<String, Date> attestation : progress.getIssueDates().entrySet()) {
+            if (attestation.getValue().getTime() >= overlapStart) {
+                recentAttestationIds.add(attestation.getKey());
+            }
+        }
+        ahWatermark.setWatermark(newWatermark);
+        ahWatermark.setRecentIds(StringUtils.join(recentAttestationIds, ","));
+    }
+
+    /**
+     * Seeds the watermark from the file used by the earlier versions
+     */
+    private AhWatermark readWatermarkFromLastRunFile() {
+        AhWatermark ahWatermark = new AhWatermark(ATTESTATION_WATERMARK);
+        String lastDateTimeFromLastRunFile = readDateTimeFromLastRunFile();
+        if (StringUtils.isNotBlank(lastDateTimeFromLastRunFile)) {
+            try {
+                ahWatermark.setWatermark(ISODateTimeFormat.dateTimeParser().parseDateTime(
+                        lastDateTimeFromLastRunFile.trim()).toDate());
+                log.info("Seeding the attestation watermark from the last run file: {}", lastDateTimeFromLastRunFile);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid date in the last run file: {}", lastDateTimeFromLastRunFile, e);
             }
         }
+        return ahWatermark;
+    }
+
+    private int getWatermarkOverlap() {
+        int overlap = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_WATERMARK_OVERLAP,
+                DEFAULT_WATERMARK_OVERLAP_SECONDS);
+        return overlap < 0 ? DEFAULT_WATERMARK_OVERLAP_SECONDS : overlap;
     }
 
     private String readDateTimeFromLastRunFile() {
         // 2016-02-27T00:00:00Z
+        File lastRunDateTimeFile = new File(Folders.configuration() + File.separator + LAST_RUN_FILE_NAME);
         if (!lastRunDateTimeFile.exists()) {
             return null;
         }
@@ -249,4 +323,42 @@ public class AttestationServicePollerJob {
     private void logPollerRunComplete() {
         log.info("Poller run completed at {}", new Date());
     }
+
+    /**
+     * SAML issue time of the attestations saved in the run, keyed by
+     * attestation id
+     */
+    private static class IngestProgress {
+        private final Map<String, Date> issueDates = new HashMap<>();
+        private Date latestIssueDate = null;
+        private int unchangedHosts = 0;
+
+        private synchronized void addAll(List<MWHost> mwHosts) {
+            for (MWHost mwHost : mwHosts) {
+                if (mwHost.isUnchanged()) {
+                    unchangedHosts++;
+                }
+                if (mwHost.getTrustAssertion() == null || mwHost.getTrustAssertion().getDate() == null) {
+                    continue;
+                }
+                Date issueDate = mwHost.getTrustAssertion().getDate();
+                issueDates.put(mwHost.getMwHostAttestation().getId().toString(), issueDate);
+                if (latestIssueDate == null || issueDate.after(latestIssueDate)) {
+                    latestIssueDate = issueDate;
+                }
+            }
+        }
+
+        private synchronized int getUnchangedHosts() {
+            return unchangedHosts;
+        }
+
+        private synchronized Date getLatestIssueDate() {
+            return latestIssueDate;
+        }
+
+        private synchronized Map<String, Date> getIssueDates() {
+            return new HashMap<>(issueDates);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package com.intel.attestationhub.quartz;
+
+import com.intel.attestationhub.api.MWHost;
+import com.intel.mtwilson.attestationhub.controller.AhHostJpaController;
+import com.intel.mtwilson.attestationhub.service.PersistenceServiceFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks hosts as deleted as soon as their SAML expires, instead of waiting for
+ * the next poll. The expiry of each active host is kept in a delay queue,
+ * seeded from the DB on start and fed with the hosts saved by the poller. A
+ * single thread waits for the earliest expiry, marks the expired hosts as
+ * deleted and asks the scheduler to push the change to the tenants. The
+ * scheduler coalesces these requests, so hosts expiring one after another
+ * lead to a single push.
+ *
+ * A host attested again gets a new entry with the later expiry. The earlier
+ * entry is ignored when it comes up, since it no longer matches the latest
+ * expiry of the host.
+ */
+public class SamlExpiryScheduler implements Runnable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SamlExpiryScheduler.class);
+    private static final SamlExpiryScheduler instance = new SamlExpiryScheduler();
+
+    private final DelayQueue<HostExpiry> expiryQueue = new DelayQueue<>();
+    private final ConcurrentMap<String, Date> latestExpiries = new ConcurrentHashMap<>();
+    private Thread expiryThread = null;
+    private Runnable publishRequest = null;
+
+    private SamlExpiryScheduler() {
+    }
+
+    public static SamlExpiryScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Loads the expiry of the active hosts from the DB and starts the thread
+     * which expires them
+     *
+     * @param publishRequest
+     *            run after hosts are marked as deleted, to have the change
+     *            pushed to the tenants
+     */
+    public synchronized void start(Runnable publishRequest) {
+        if (expiryThread != null) {
+            return;
+        }
+        this.publishRequest = publishRequest;
+        AhHostJpaController ahHostJpaController = PersistenceServiceFactory.getInstance().getHostController();
+        Map<String, Date> expiries = ahHostJpaController.findActiveHostExpiries();
+        for (Map.Entry<String, Date> expiry : expiries.entrySet()) {
+            schedule(expiry.getKey(), expiry.getValue());
+        }
+        log.info("Scheduled SAML expiry of {} hosts", expiries.size());
+        expiryThread = new Thread(this, "attestation-hub-saml-expiry");
+        expiryThread.setDaemon(true);
+        expiryThread.start();
+    }
+
+    /**
+     * Schedules the expiry of the hosts saved by the poller
+     */
+    public void schedule(Map<String, MWHost> hostIdToMwHostMap) {
+        for (Map.Entry<String, MWHost> entry : hostIdToMwHostMap.entrySet()) {
+            schedule(entry.getKey(), entry.getValue().getSamlNotAfter());
+        }
+    }
+
+    public void schedule(String hostId, Date notAfter) {
+        if (hostId == null || notAfter == null) {
+            return;
+        }
+        latestExpiries.put(hostId, notAfter);
+        expiryQueue.put(new HostExpiry(hostId, notAfter));
+    }
+
+    @Override
+    public void run() {
+        List<HostExpiry> expired = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                expired.add(expiryQueue.take());
+            } catch (InterruptedException e) {
+                log.info("SAML expiry thread interrupted");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            expiryQueue.drainTo(expired);
+            try {
+                expire(expired);
+            } catch (Exception e) {
+                log.error("Error marking hosts with expired SAML as deleted", e);
+            }
+            expired.clear();
+        }
+    }
+
+    private void expire(List<HostExpiry> expired) throws Exception {
+        List<String> hostIds = new ArrayList<>();
+        for (HostExpiry hostExpiry : expired) {
+            // only the latest expiry of the host counts
+            if (latestExpiries.remove(hostExpiry.hostId, hostExpiry.notAfter)) {
+                hostIds.add(hostExpiry.hostId);
+            }
+        }
+        if (hostIds.isEmpty()) {
+            return;
+        }
+        AhHostJpaController ahHostJpaController = PersistenceServiceFactory.getInstance().getHostController();
+        int deleted = ahHostJpaController.deleteExpiredHosts(hostIds, new Date());
+        log.info("Marked {} hosts as deleted as their SAML expired", deleted);
+        if (deleted > 0) {
+            publishRequest.run();
+        }
+    }
+
+    private static class HostExpiry implements Delayed {
+        private final String hostId;
+        private final Date notAfter;
+
+        private HostExpiry(String hostId, Date notAfter) {
+            this.hostId = hostId;
+            this.notAfter = notAfter;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notAfter.getTime() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other instanceof HostExpiry) {
+                long otherTime = ((HostExpiry) other).notAfter.getTime();
+                long time = notAfter.getTime();
+                return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+            }
+            long diff = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+            return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.intel.attestationhub.mtwclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class FetchWindowTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final int PAGE_SIZE = 500;
+    private static final DateTime START = new DateTime(2017, 8, 1, 12, 0, DateTimeZone.UTC);
+
+    @Test
+    public void denseWindowIsTruncatedAndPassed() {
+        // a burst of 2000 attestations in the second at 12:02:00
+        final DateTime burst = START.plusMinutes(2);
+        FetchWindow window = new FetchWindow(START, START.plusMinutes(5), PAGE_SIZE, 5 * MINUTE, SECOND, 60 * MINUTE);
+        List<DateTime> truncated = new ArrayList<>();
+        int fetches = 0;
+        while (window.hasNext()) {
+            assertTrue("Window does not move past the burst", ++fetches < 100);
+            boolean coversBurst = !window.getStart().isAfter(burst) && window.getEnd().isAfter(burst);
+            int count = coversBurst ? PAGE_SIZE : 10;
+            if (window.narrow(count)) {
+                continue;
+            }
+            if (window.isTruncated(count)) {
+                truncated.add(window.getStart());
+                assertEquals(SECOND, window.getEnd().getMillis() - window.getStart().getMillis());
+            }
+            window.advance(count);
+        }
+        // only the second of the burst is truncated, and the fetch goes on
+        // to the end
+        assertEquals(1, truncated.size());
+        assertFalse(truncated.get(0).isAfter(burst));
+        assertTrue(truncated.get(0).plus(SECOND).isAfter(burst));
+        assertEquals(START.plusMinutes(5), window.getStart());
+    }
+
+    @Test
+    public void fullPageNarrowsDownToTheMinimum() {
+        FetchWindow window = new FetchWindow(START, START.plusHours(1), PAGE_SIZE, 4 * SECOND, SECOND, MINUTE);
+        assertTrue(window.narrow(PAGE_SIZE));
+        assertEquals(2 * SECOND, window.getMillis());
+        assertTrue(window.narrow(PAGE_SIZE));
+        assertEquals(SECOND, window.getMillis());
+        assertFalse(window.narrow(PAGE_SIZE));
+        assertTrue(window.isTruncated(PAGE_SIZE));
+        assertFalse(window.isTruncated(PAGE_SIZE - 1));
+        window.advance(PAGE_SIZE);
+        assertEquals(START.plusSeconds(1), window.getStart());
+    }
+
+    @Test
+    public void sparsePageWidensUpToTheMaximumAndStopsAtTheEnd() {
+        FetchWindow window = new FetchWindow(START, START.plusMinutes(3), PAGE_SIZE, 30 * SECOND, SECOND, MINUTE);
+        assertFalse(window.narrow(10));
+        assertFalse(window.isTruncated(10));
+        window.advance(10);
+        assertEquals(START.plusSeconds(30), window.getStart());
+        assertEquals(MINUTE, window.getMillis());
+        window.advance(10);
+        assertEquals(MINUTE, window.getMillis());
+        window.advance(10);
+        assertEquals(START.plusMinutes(3), window.getEnd());
+        window.advance(10);
+        assertFalse(window.hasNext());
+    }
+}
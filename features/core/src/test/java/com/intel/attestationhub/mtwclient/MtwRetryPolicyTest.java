@@ -0,0 +1,95 @@
+package com.intel.attestationhub.mtwclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs with the default settings, as no attestation-hub.properties is present
+ * in the tests: a 30 second retry delay capped at 600 seconds, a failure
+ * threshold of 3 and an outage timeout of 10 minutes.
+ */
+public class MtwRetryPolicyTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    private long now;
+    private MtwRetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        now = 1000000L;
+        policy = new MtwRetryPolicy() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void retryDelayDoublesUpToTheCap() {
+        assertEquals(-1, policy.getRetryDelay());
+        policy.recordFailure();
+        assertDelayBetween(30 * SECOND);
+        policy.recordFailure();
+        assertDelayBetween(60 * SECOND);
+        policy.recordFailure();
+        assertDelayBetween(120 * SECOND);
+        for (int i = 0; i < 20; i++) {
+            policy.recordFailure();
+        }
+        assertDelayBetween(600 * SECOND);
+    }
+
+    @Test
+    public void circuitOpensAtTheThresholdAndClosesOnSuccess() {
+        policy.recordFailure();
+        policy.recordFailure();
+        assertTrue(policy.allowRequest());
+        policy.recordFailure();
+        assertFalse(policy.allowRequest());
+
+        now += policy.getRetryDelay();
+        assertTrue(policy.allowRequest());
+
+        policy.recordFailure();
+        assertFalse(policy.allowRequest());
+        policy.recordSuccess();
+        assertTrue(policy.allowRequest());
+        assertEquals(-1, policy.getRetryDelay());
+    }
+
+    @Test
+    public void sustainedOutageIsReportedOnce() {
+        assertFalse(policy.reportSustainedOutage());
+        policy.recordFailure();
+        now += 9 * MINUTE;
+        policy.recordFailure();
+        assertFalse(policy.reportSustainedOutage());
+
+        now += MINUTE;
+        assertTrue(policy.reportSustainedOutage());
+        policy.recordFailure();
+        assertFalse(policy.reportSustainedOutage());
+
+        // a new outage after MTW was reachable again is reported again
+        policy.recordSuccess();
+        policy.recordFailure();
+        assertFalse(policy.reportSustainedOutage());
+        now += 10 * MINUTE;
+        assertTrue(policy.reportSustainedOutage());
+    }
+
+    /**
+     * The jitter adds up to half the delay
+     */
+    private void assertDelayBetween(long delay) {
+        long retryDelay = policy.getRetryDelay();
+        assertTrue("Retry delay " + retryDelay + " below " + delay, retryDelay >= delay);
+        assertTrue("Retry delay " + retryDelay + " above " + delay * 3 / 2, retryDelay <= delay * 3 / 2);
+    }
+}
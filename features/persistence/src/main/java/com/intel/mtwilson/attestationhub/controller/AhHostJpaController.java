@@ -6,7 +6,18 @@
 package com.intel.mtwilson.attestationhub.controller;
 
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -24,12 +35,41 @@ import com.intel.mtwilson.attestationhub.data.AhHost;
  * @author GS-0681
  */
 public class AhHostJpaController implements Serializable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AhHostJpaController.class);
 
     /**
      * 
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Maximum number of values bound into a single IN list
+     */
+    private static final int IN_LIST_CHUNK_SIZE = 1000;
+
+    private static final String UPSERT_HOST_SQL = "INSERT INTO ah_host (id, hardware_uuid, host_name, bios_mle_uuid, "
+	    + "vmm_mle_uuid, aik_certificate, aik_sha256, connection_url, trust_tags_json, valid_to, saml_report, "
+	    + "trusted, asset_tags, created_date, created_by, modified_date, modified_by, deleted, not_after, "
+	    + "fingerprint) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+	    + "ON CONFLICT (id) DO UPDATE SET "
+	    + "hardware_uuid = EXCLUDED.hardware_uuid, host_name = EXCLUDED.host_name, "
+	    + "bios_mle_uuid = EXCLUDED.bios_mle_uuid, vmm_mle_uuid = EXCLUDED.vmm_mle_uuid, "
+	    + "aik_certificate = EXCLUDED.aik_certificate, aik_sha256 = EXCLUDED.aik_sha256, "
+	    + "connection_url = EXCLUDED.connection_url, trust_tags_json = EXCLUDED.trust_tags_json, "
+	    + "valid_to = EXCLUDED.valid_to, saml_report = EXCLUDED.saml_report, trusted = EXCLUDED.trusted, "
+	    + "asset_tags = EXCLUDED.asset_tags, modified_date = EXCLUDED.modified_date, "
+	    + "modified_by = EXCLUDED.modified_by, deleted = EXCLUDED.deleted, not_after = EXCLUDED.not_after, "
+	    + "fingerprint = EXCLUDED.fingerprint";
+
+    private static final String UPDATE_SAML_SQL = "UPDATE ah_host SET saml_report = ?, valid_to = ?, not_after = ?, "
+	    + "modified_date = ?, modified_by = ? WHERE id = ?";
+
+    /**
+     * Whether the database accepts INSERT ... ON CONFLICT, which needs
+     * PostgreSQL 9.5 or later. Detected on the first bulk upsert.
+     */
+    private static volatile Boolean upsertSupported = null;
+
     public AhHostJpaController(EntityManagerFactory emf) {
 	this.emf = emf;
     }
@@ -107,6 +147,23 @@ public class AhHostJpaController implements Serializable {
 	return findAhHostEntities(true, -1, -1);
     }
 
+    /**
+     * Reads the active hosts over a database cursor and passes them to the
+     * handler one at a time
+     * 
+     * @param handler
+     * @return number of hosts read
+     * @throws Exception
+     */
+    public int streamActiveAhHostEntities(EntityHandler<AhHost> handler) throws Exception {
+	EntityManager em = getEntityManager();
+	try {
+	    return EntityCursor.forEach(em, em.createNamedQuery("AhHost.findAllActive"), handler);
+	} finally {
+	    em.close();
+	}
+    }
+
     public List<AhHost> findAhHostEntities(int maxResults, int firstResult) {
 	return findAhHostEntities(false, maxResults, firstResult);
     }
@@ -127,6 +184,39 @@ public class AhHostJpaController implements Serializable {
 	}
     }
 
+    public List<AhHost> findActiveAhHostEntities() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findAllActive");
+	    return query.getResultList();
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Fetches a page of active hosts ordered by id, starting after the given
+     * id. The summary variant skips the certificate, SAML and tag columns.
+     * 
+     * @param afterId
+     *            id of the last host of the previous page, null for the first
+     *            page
+     * @param maxResults
+     * @param summary
+     * @return hosts of the page, empty if there are no more hosts
+     */
+    public List<AhHost> findActiveAhHostsPage(String afterId, int maxResults, boolean summary) {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery(summary ? "AhHost.findActiveSummariesAfterId" : "AhHost.findActiveAfterId");
+	    query.setParameter("afterId", afterId == null ? "" : afterId);
+	    query.setMaxResults(maxResults);
+	    return query.getResultList();
+	} finally {
+	    em.close();
+	}
+    }
+
     public AhHost findAhHost(String id) {
 	EntityManager em = getEntityManager();
 	try {
@@ -165,6 +255,22 @@ public class AhHostJpaController implements Serializable {
 	return hostsList;
     }
 
+    public List<AhHost> findActiveHostsWithFilterCriteria(String filterCriteria) {
+	List<AhHost> hostsList = null;
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findActiveByHostName");
+	    query.setParameter("hostName", filterCriteria.toUpperCase());
+	    hostsList = query.getResultList();
+	    if (hostsList.isEmpty()) {
+		hostsList = null;
+	    }
+	} finally {
+	    em.close();
+	}
+	return hostsList;
+    }
+
     public List<AhHost> findHostsByHardwareUuid(String hardwareUuid) {
 	List<AhHost> hostsList = null;
 	EntityManager em = getEntityManager();
@@ -180,4 +286,370 @@ public class AhHostJpaController implements Serializable {
 	}
 	return hostsList;
     }
+
+    public List<AhHost> findActiveHostsByHardwareUuid(String hardwareUuid) {
+	List<AhHost> hostsList = null;
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findActiveByHardwareUuid");
+	    query.setParameter("hardwareUuid", hardwareUuid.toUpperCase());
+	    hostsList = query.getResultList();
+	    if (hostsList.isEmpty()) {
+		hostsList = null;
+	    }
+	} finally {
+	    em.close();
+	}
+	return hostsList;
+    }
+
+    /**
+     * @return active hosts stored before the SAML expiry was kept in its own
+     *         column
+     */
+    public List<AhHost> findActiveHostsWithoutNotAfter() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findActiveWithoutNotAfter");
+	    return query.getResultList();
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Marks the active hosts whose SAML is no longer valid as deleted
+     * 
+     * @param now
+     * @return number of hosts marked as deleted
+     * @throws Exception
+     */
+    public int deleteExpiredHosts(Date now) throws Exception {
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    Query query = em.createNamedQuery("AhHost.deleteExpired");
+	    query.setParameter("now", now);
+	    int deleted = query.executeUpdate();
+	    em.getTransaction().commit();
+	    return deleted;
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+
+    /**
+     * Marks all the active hosts as deleted
+     * 
+     * @return number of hosts marked as deleted
+     * @throws Exception
+     */
+    public int deactivateAllHosts() throws Exception {
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    Query query = em.createNamedQuery("AhHost.deactivateAll");
+	    query.setParameter("modifiedDate", new Date());
+	    int deleted = query.executeUpdate();
+	    em.getTransaction().commit();
+	    return deleted;
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+
+    /**
+     * @return SAML expiry of the active hosts keyed by host id
+     */
+    public Map<String, Date> findActiveHostExpiries() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findActiveExpiries");
+	    List<Object[]> rows = query.getResultList();
+	    Map<String, Date> expiries = new HashMap<String, Date>(rows.size());
+	    for (Object[] row : rows) {
+		expiries.put((String) row[0], (Date) row[1]);
+	    }
+	    return expiries;
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Loads only the columns describing the host in MTW, for all the hosts
+     * including the deleted ones
+     * 
+     * @return hosts with the id, name, hardware UUID, connection URL, AIK and
+     *         BIOS MLE UUID set
+     */
+    public List<AhHost> findAhHostMetadata() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhHost.findMetadata");
+	    List<Object[]> rows = query.getResultList();
+	    List<AhHost> ahHosts = new ArrayList<AhHost>(rows.size());
+	    for (Object[] row : rows) {
+		AhHost ahHost = new AhHost((String) row[0]);
+		ahHost.setHostName((String) row[1]);
+		ahHost.setHardwareUuid((String) row[2]);
+		ahHost.setConnectionUrl((String) row[3]);
+		ahHost.setAikCertificate((String) row[4]);
+		ahHost.setAikSha256((String) row[5]);
+		ahHost.setBiosMleUuid((String) row[6]);
+		ahHosts.add(ahHost);
+	    }
+	    return ahHosts;
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Marks the given hosts as deleted if they are still active and their SAML
+     * is no longer valid. A host attested again in the meantime has a later
+     * expiry and is left as is.
+     * 
+     * @param ids
+     * @param now
+     * @return number of hosts marked as deleted
+     * @throws Exception
+     */
+    public int deleteExpiredHosts(Collection<String> ids, Date now) throws Exception {
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    int deleted = 0;
+	    for (List<String> chunk : chunk(new ArrayList<String>(ids), IN_LIST_CHUNK_SIZE)) {
+		Query query = em.createNamedQuery("AhHost.deleteExpiredByIds");
+		query.setParameter("ids", chunk);
+		query.setParameter("now", now);
+		deleted += query.executeUpdate();
+	    }
+	    em.getTransaction().commit();
+	    return deleted;
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+
+    /**
+     * Loads the hosts with the given ids. The ids are bound in chunks so that
+     * a large set needs only a few IN list queries.
+     * 
+     * @param ids
+     * @return map of host id to host for the hosts that exist in the DB
+     */
+    public Map<String, AhHost> findAhHostsByIds(Collection<String> ids) {
+	Map<String, AhHost> hostsMap = new HashMap<String, AhHost>();
+	if (ids == null || ids.isEmpty()) {
+	    return hostsMap;
+	}
+	EntityManager em = getEntityManager();
+	try {
+	    for (List<String> chunk : chunk(new ArrayList<String>(ids), IN_LIST_CHUNK_SIZE)) {
+		Query query = em.createNamedQuery("AhHost.findByIds");
+		query.setParameter("ids", chunk);
+		List<AhHost> hostsList = query.getResultList();
+		for (AhHost ahHost : hostsList) {
+		    hostsMap.put(ahHost.getId(), ahHost);
+		}
+	    }
+	} finally {
+	    em.close();
+	}
+	return hostsMap;
+    }
+
+    /**
+     * Creates or updates the given hosts in a single transaction. Before the
+     * hosts are written, every active host row with one of the given hardware
+     * uuids is marked as deleted, which retires records of hosts that were
+     * deleted and registered again in MTW with a new id.
+     * 
+     * On PostgreSQL 9.5 and later the rows are written as one JDBC batch of
+     * INSERT ... ON CONFLICT statements. Other databases fall back to a merge
+     * per host, which EclipseLink groups into JDBC batches.
+     * 
+     * @param ahHosts
+     *            hosts to create or update
+     * @param hardwareUuidsToDeactivate
+     *            upper cased hardware uuids of the hosts that are new to the
+     *            hub
+     * @throws Exception
+     */
+    public void upsertHosts(List<AhHost> ahHosts, Collection<String> hardwareUuidsToDeactivate) throws Exception {
+	if (ahHosts == null || ahHosts.isEmpty()) {
+	    return;
+	}
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    if (hardwareUuidsToDeactivate != null && !hardwareUuidsToDeactivate.isEmpty()) {
+		Date modifiedDate = new Date();
+		int deactivated = 0;
+		for (List<String> chunk : chunk(new ArrayList<String>(hardwareUuidsToDeactivate), IN_LIST_CHUNK_SIZE)) {
+		    Query query = em.createNamedQuery("AhHost.deactivateByHardwareUuids");
+		    query.setParameter("hardwareUuids", chunk);
+		    query.setParameter("modifiedDate", modifiedDate);
+		    deactivated += query.executeUpdate();
+		}
+		log.debug("Marked {} earlier records of re-registered hosts as deleted", deactivated);
+	    }
+	    Connection connection = em.unwrap(Connection.class);
+	    if (isUpsertSupported(connection)) {
+		executeUpsertBatch(connection, ahHosts);
+	    } else {
+		for (AhHost ahHost : ahHosts) {
+		    em.merge(ahHost);
+		}
+	    }
+	    em.getTransaction().commit();
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+
+    /**
+     * Writes only the SAML report, its validity and the modification of the
+     * given hosts, as one JDBC batch in a single transaction. Used for hosts
+     * whose new attestation leaves everything else unchanged.
+     * 
+     * @param ahHosts
+     * @throws Exception
+     */
+    public void updateSamlReports(List<AhHost> ahHosts) throws Exception {
+	if (ahHosts == null || ahHosts.isEmpty()) {
+	    return;
+	}
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    Connection connection = em.unwrap(Connection.class);
+	    try (PreparedStatement statement = connection.prepareStatement(UPDATE_SAML_SQL)) {
+		for (AhHost ahHost : ahHosts) {
+		    int i = 1;
+		    statement.setString(i++, ahHost.getSamlReport());
+		    statement.setString(i++, ahHost.getValidTo());
+		    setTimestamp(statement, i++, ahHost.getNotAfter());
+		    setTimestamp(statement, i++, ahHost.getModifiedDate());
+		    statement.setString(i++, ahHost.getModifiedBy());
+		    statement.setString(i++, ahHost.getId());
+		    statement.addBatch();
+		}
+		statement.executeBatch();
+	    }
+	    em.getTransaction().commit();
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+
+    private void executeUpsertBatch(Connection connection, List<AhHost> ahHosts) throws SQLException {
+	try (PreparedStatement statement = connection.prepareStatement(UPSERT_HOST_SQL)) {
+	    for (AhHost ahHost : ahHosts) {
+		int i = 1;
+		statement.setString(i++, ahHost.getId());
+		statement.setString(i++, ahHost.getHardwareUuid());
+		statement.setString(i++, ahHost.getHostName());
+		statement.setString(i++, ahHost.getBiosMleUuid());
+		statement.setString(i++, ahHost.getVmmMleUuid());
+		statement.setString(i++, ahHost.getAikCertificate());
+		statement.setString(i++, ahHost.getAikSha256());
+		statement.setString(i++, ahHost.getConnectionUrl());
+		statement.setString(i++, ahHost.getTrustTagsJson());
+		statement.setString(i++, ahHost.getValidTo());
+		statement.setString(i++, ahHost.getSamlReport());
+		setBoolean(statement, i++, ahHost.getTrusted());
+		statement.setString(i++, ahHost.getAssetTags());
+		setTimestamp(statement, i++, ahHost.getCreatedDate());
+		statement.setString(i++, ahHost.getCreatedBy());
+		setTimestamp(statement, i++, ahHost.getModifiedDate());
+		statement.setString(i++, ahHost.getModifiedBy());
+		setBoolean(statement, i++, ahHost.getDeleted());
+		setTimestamp(statement, i++, ahHost.getNotAfter());
+		statement.setString(i++, ahHost.getFingerprint());
+		statement.addBatch();
+	    }
+	    statement.executeBatch();
+	}
+    }
+
+    private static void setBoolean(PreparedStatement statement, int index, Boolean value) throws SQLException {
+	if (value == null) {
+	    statement.setNull(index, Types.BOOLEAN);
+	} else {
+	    statement.setBoolean(index, value);
+	}
+    }
+
+    private static void setTimestamp(PreparedStatement statement, int index, Date value) throws SQLException {
+	if (value == null) {
+	    statement.setNull(index, Types.TIMESTAMP);
+	} else {
+	    statement.setTimestamp(index, new Timestamp(value.getTime()));
+	}
+    }
+
+    private static boolean isUpsertSupported(Connection connection) throws SQLException {
+	if (upsertSupported == null) {
+	    DatabaseMetaData metaData = connection.getMetaData();
+	    String productName = metaData.getDatabaseProductName();
+	    int majorVersion = metaData.getDatabaseMajorVersion();
+	    int minorVersion = metaData.getDatabaseMinorVersion();
+	    upsertSupported = "PostgreSQL".equalsIgnoreCase(productName)
+		    && (majorVersion > 9 || (majorVersion == 9 && minorVersion >= 5));
+	    log.info("Database is {} {}.{}. Bulk upsert with ON CONFLICT supported: {}", productName, majorVersion,
+		    minorVersion, upsertSupported);
+	}
+	return upsertSupported;
+    }
+
+    private static <T> List<List<T>> chunk(List<T> list, int chunkSize) {
+	List<List<T>> chunks = new ArrayList<List<T>>();
+	for (int i = 0; i < list.size(); i += chunkSize) {
+	    chunks.add(list.subList(i, Math.min(i + chunkSize, list.size())));
+	}
+	return chunks;
+    }
 }
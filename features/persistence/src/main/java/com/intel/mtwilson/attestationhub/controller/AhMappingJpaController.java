@@ -6,7 +6,11 @@
 package com.intel.mtwilson.attestationhub.controller;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -17,6 +21,7 @@ import javax.persistence.criteria.Root;
 
 import com.intel.mtwilson.attestationhub.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.attestationhub.controller.exceptions.PreexistingEntityException;
+import com.intel.mtwilson.attestationhub.data.AhHost;
 import com.intel.mtwilson.attestationhub.data.AhMapping;
 import com.intel.mtwilson.attestationhub.data.AhTenant;
 
@@ -132,6 +137,33 @@ public class AhMappingJpaController implements Serializable {
 	return findAhMappingEntities(true, -1, -1);
     }
 
+    public List<AhMapping> findActiveAhMappingEntities() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhMapping.findAllActive");
+	    return query.getResultList();
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Reads the active mappings over a database cursor and passes them to the
+     * handler one at a time
+     * 
+     * @param handler
+     * @return number of mappings read
+     * @throws Exception
+     */
+    public int streamActiveAhMappingEntities(EntityHandler<AhMapping> handler) throws Exception {
+	EntityManager em = getEntityManager();
+	try {
+	    return EntityCursor.forEach(em, em.createNamedQuery("AhMapping.findAllActive"), handler);
+	} finally {
+	    em.close();
+	}
+    }
+
     public List<AhMapping> findAhMappingEntities(int maxResults, int firstResult) {
 	return findAhMappingEntities(false, maxResults, firstResult);
     }
@@ -204,4 +236,82 @@ public class AhMappingJpaController implements Serializable {
 	return mappingsList;
     }
 
+    public List<AhMapping> findActiveAhMappingsByTenantId(String id) {
+	List<AhMapping> mappingsList = null;
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhMapping.findActiveByTenantId");
+	    query.setParameter("tenantId", id);
+	    mappingsList = query.getResultList();
+	    if (mappingsList.isEmpty()) {
+		mappingsList = null;
+	    }
+	} finally {
+	    em.close();
+	}
+	return mappingsList;
+    }
+
+    /**
+     * Loads the active hosts mapped to each active tenant with a single join
+     * query, for publishing the hosts to the tenants. Only the columns needed
+     * for the published reports are loaded; the SAML and AIK are left out. A
+     * mapping with no active host is left out, and a mapping matching more
+     * than one active host gets the first of them.
+     * 
+     * @return hosts keyed by tenant id, in the order of the tenant ids
+     */
+    public Map<String, List<AhHost>> findActiveHostsByTenant() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhMapping.findActiveHostsOfActiveTenants");
+	    List<Object[]> rows = query.getResultList();
+	    Map<String, List<AhHost>> hostsByTenant = new LinkedHashMap<String, List<AhHost>>();
+	    String previousMappingId = null;
+	    for (Object[] row : rows) {
+		String tenantId = (String) row[0];
+		String mappingId = (String) row[1];
+		if (mappingId.equals(previousMappingId)) {
+		    continue;
+		}
+		previousMappingId = mappingId;
+		AhHost ahHost = new AhHost((String) row[2]);
+		ahHost.setHardwareUuid((String) row[3]);
+		ahHost.setHostName((String) row[4]);
+		ahHost.setTrustTagsJson((String) row[5]);
+		ahHost.setAssetTags((String) row[6]);
+		ahHost.setValidTo((String) row[7]);
+		ahHost.setTrusted((Boolean) row[8]);
+		ahHost.setFingerprint((String) row[9]);
+		ahHost.setModifiedDate((Date) row[10]);
+		ahHost.setDeleted(false);
+		List<AhHost> hosts = hostsByTenant.get(tenantId);
+		if (hosts == null) {
+		    hosts = new ArrayList<AhHost>();
+		    hostsByTenant.put(tenantId, hosts);
+		}
+		hosts.add(ahHost);
+	    }
+	    return hostsByTenant;
+	} finally {
+	    em.close();
+	}
+    }
+
+    public List<AhMapping> findActiveAhMappingsByHostHardwareUuid(String id) {
+	List<AhMapping> mappingsList = null;
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhMapping.findActiveByHostHardwareUuid");
+	    query.setParameter("hostHardwareUuid", id);
+	    mappingsList = query.getResultList();
+	    if (mappingsList.isEmpty()) {
+		mappingsList = null;
+	    }
+	} finally {
+	    em.close();
+	}
+	return mappingsList;
+    }
+
 }
@@ -135,6 +135,33 @@ public class AhTenantJpaController implements Serializable {
 	return findAhTenantEntities(true, -1, -1);
     }
 
+    public List<AhTenant> findActiveAhTenantEntities() {
+	EntityManager em = getEntityManager();
+	try {
+	    Query query = em.createNamedQuery("AhTenant.findAllActive");
+	    return query.getResultList();
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Reads the active tenants over a database cursor and passes them to the
+     * handler one at a time
+     * 
+     * @param handler
+     * @return number of tenants read
+     * @throws Exception
+     */
+    public int streamActiveAhTenantEntities(EntityHandler<AhTenant> handler) throws Exception {
+	EntityManager em = getEntityManager();
+	try {
+	    return EntityCursor.forEach(em, em.createNamedQuery("AhTenant.findAllActive"), handler);
+	} finally {
+	    em.close();
+	}
+    }
+
     public List<AhTenant> findAhTenantEntities(int maxResults, int firstResult) {
 	return findAhTenantEntities(false, maxResults, firstResult);
     }
@@ -193,4 +220,21 @@ public class AhTenantJpaController implements Serializable {
 	}
 	return tenantsList;
     }
+
+    public List<AhTenant> findActiveAhTenantsByNameSearchCriteria(String searchCriteria) {
+	List<AhTenant> tenantsList = null;
+	EntityManager em = getEntityManager();
+
+	try {
+	    Query query = em.createNamedQuery("AhTenant.findActiveByTenantNameSearchCriteria");
+	    query.setParameter("tenantName", searchCriteria);
+	    tenantsList = query.getResultList();
+	    if (tenantsList.isEmpty()) {
+		tenantsList = null;
+	    }
+	} finally {
+	    em.close();
+	}
+	return tenantsList;
+    }
 }
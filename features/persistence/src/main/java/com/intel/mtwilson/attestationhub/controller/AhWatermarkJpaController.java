@@ -0,0 +1,55 @@
+package com.intel.mtwilson.attestationhub.controller;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.intel.mtwilson.attestationhub.data.AhWatermark;
+
+public class AhWatermarkJpaController implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public AhWatermarkJpaController(EntityManagerFactory emf) {
+	this.emf = emf;
+    }
+
+    private EntityManagerFactory emf = null;
+
+    public EntityManager getEntityManager() {
+	return emf.createEntityManager();
+    }
+
+    public AhWatermark findAhWatermark(String name) {
+	EntityManager em = getEntityManager();
+	try {
+	    return em.find(AhWatermark.class, name);
+	} finally {
+	    em.close();
+	}
+    }
+
+    /**
+     * Inserts or updates the watermark in a single transaction
+     */
+    public void saveAhWatermark(AhWatermark ahWatermark) throws Exception {
+	EntityManager em = null;
+	try {
+	    em = getEntityManager();
+	    em.getTransaction().begin();
+	    ahWatermark.setModifiedDate(new Date());
+	    em.merge(ahWatermark);
+	    em.getTransaction().commit();
+	} catch (Exception ex) {
+	    if (em != null && em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	    throw ex;
+	} finally {
+	    if (em != null) {
+		em.close();
+	    }
+	}
+    }
+}
@@ -0,0 +1,60 @@
+package com.intel.mtwilson.attestationhub.controller;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.queries.ScrollableCursor;
+
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+
+/**
+ * Runs a query over an EclipseLink scrollable cursor and hands the rows to an
+ * {@link EntityHandler} as they are fetched, so the full result is never held
+ * in memory.
+ */
+class EntityCursor {
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    private EntityCursor() {
+    }
+
+    /**
+     * @return number of rows handled
+     */
+    @SuppressWarnings("unchecked")
+    static <T> int forEach(EntityManager em, Query query, EntityHandler<T> handler) throws Exception {
+	int fetchSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_DB_FETCH_SIZE, DEFAULT_FETCH_SIZE);
+	if (fetchSize <= 0) {
+	    fetchSize = DEFAULT_FETCH_SIZE;
+	}
+	query.setHint(QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+	query.setHint(QueryHints.READ_ONLY, HintValues.TRUE);
+	query.setHint(QueryHints.JDBC_FETCH_SIZE, fetchSize);
+	int count = 0;
+	ScrollableCursor cursor = null;
+	// The PostgreSQL driver honours the fetch size only when auto commit is
+	// off, otherwise it reads the whole result set at once
+	em.getTransaction().begin();
+	try {
+	    cursor = (ScrollableCursor) query.getSingleResult();
+	    while (cursor.hasNext()) {
+		handler.handle((T) cursor.next());
+		count++;
+		if (count % fetchSize == 0) {
+		    em.clear();
+		}
+	    }
+	} finally {
+	    if (cursor != null) {
+		cursor.close();
+	    }
+	    if (em.getTransaction().isActive()) {
+		em.getTransaction().rollback();
+	    }
+	}
+	return count;
+    }
+}
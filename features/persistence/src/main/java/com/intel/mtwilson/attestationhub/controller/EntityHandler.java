@@ -0,0 +1,10 @@
+package com.intel.mtwilson.attestationhub.controller;
+
+/**
+ * Callback for the rows read by the streaming finders of the controllers. The
+ * entities are handed over one at a time and are detached from the entity
+ * manager once handled, so the handler must not hold on to them.
+ */
+public interface EntityHandler<T> {
+    public void handle(T entity) throws Exception;
+}
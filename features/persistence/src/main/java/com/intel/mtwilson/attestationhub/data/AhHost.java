@@ -30,9 +30,15 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 @XmlRootElement
 @NamedQueries({ @NamedQuery(name = "AhHost.findAll", query = "SELECT a FROM AhHost a"),
+	@NamedQuery(name = "AhHost.findAllActive", query = "SELECT a FROM AhHost a WHERE a.deleted = false"),
+	@NamedQuery(name = "AhHost.findActiveAfterId", query = "SELECT a FROM AhHost a WHERE a.deleted = false AND a.id > :afterId ORDER BY a.id"),
+	@NamedQuery(name = "AhHost.findActiveSummariesAfterId", query = "SELECT NEW com.intel.mtwilson.attestationhub.data.AhHost(a.id, a.hardwareUuid, a.hostName, a.biosMleUuid, a.vmmMleUuid, a.aikSha256, a.connectionUrl, a.validTo, a.notAfter, a.trusted, a.createdDate, a.createdBy, a.modifiedDate, a.modifiedBy, a.deleted) FROM AhHost a WHERE a.deleted = false AND a.id > :afterId ORDER BY a.id"),
 	@NamedQuery(name = "AhHost.findById", query = "SELECT a FROM AhHost a WHERE a.id = :id"),
+	@NamedQuery(name = "AhHost.findByIds", query = "SELECT a FROM AhHost a WHERE a.id IN :ids"),
 	@NamedQuery(name = "AhHost.findByHardwareUuid", query = "SELECT a FROM AhHost a WHERE upper(a.hardwareUuid) = :hardwareUuid"),
+	@NamedQuery(name = "AhHost.findActiveByHardwareUuid", query = "SELECT a FROM AhHost a WHERE upper(a.hardwareUuid) = :hardwareUuid AND a.deleted = false"),
 	@NamedQuery(name = "AhHost.findByHostName", query = "SELECT a FROM AhHost a WHERE upper(a.hostName) = :hostName"),
+	@NamedQuery(name = "AhHost.findActiveByHostName", query = "SELECT a FROM AhHost a WHERE upper(a.hostName) = :hostName AND a.deleted = false"),
 	@NamedQuery(name = "AhHost.findByBiosMleUuid", query = "SELECT a FROM AhHost a WHERE a.biosMleUuid = :biosMleUuid"),
 	@NamedQuery(name = "AhHost.findByVmmMleUuid", query = "SELECT a FROM AhHost a WHERE a.vmmMleUuid = :vmmMleUuid"),
 	@NamedQuery(name = "AhHost.findByAikCertificate", query = "SELECT a FROM AhHost a WHERE a.aikCertificate = :aikCertificate"),
@@ -44,7 +50,14 @@ import javax.xml.bind.annotation.XmlRootElement;
 	@NamedQuery(name = "AhHost.findByCreatedBy", query = "SELECT a FROM AhHost a WHERE a.createdBy = :createdBy"),
 	@NamedQuery(name = "AhHost.findByModifiedDate", query = "SELECT a FROM AhHost a WHERE a.modifiedDate = :modifiedDate"),
 	@NamedQuery(name = "AhHost.findByModifiedBy", query = "SELECT a FROM AhHost a WHERE a.modifiedBy = :modifiedBy"),
-	@NamedQuery(name = "AhHost.findByDeleted", query = "SELECT a FROM AhHost a WHERE a.deleted = :deleted") })
+	@NamedQuery(name = "AhHost.findByDeleted", query = "SELECT a FROM AhHost a WHERE a.deleted = :deleted"),
+	@NamedQuery(name = "AhHost.findActiveWithoutNotAfter", query = "SELECT a FROM AhHost a WHERE a.notAfter IS NULL AND a.deleted = false"),
+	@NamedQuery(name = "AhHost.findMetadata", query = "SELECT a.id, a.hostName, a.hardwareUuid, a.connectionUrl, a.aikCertificate, a.aikSha256, a.biosMleUuid FROM AhHost a"),
+	@NamedQuery(name = "AhHost.findActiveExpiries", query = "SELECT a.id, a.notAfter FROM AhHost a WHERE a.notAfter IS NOT NULL AND a.deleted = false"),
+	@NamedQuery(name = "AhHost.deleteExpiredByIds", query = "UPDATE AhHost a SET a.deleted = true, a.modifiedDate = :now WHERE a.id IN :ids AND a.notAfter <= :now AND a.deleted = false"),
+	@NamedQuery(name = "AhHost.deactivateAll", query = "UPDATE AhHost a SET a.deleted = true, a.modifiedDate = :modifiedDate WHERE a.deleted = false"),
+	@NamedQuery(name = "AhHost.deleteExpired", query = "UPDATE AhHost a SET a.deleted = true, a.modifiedDate = :now WHERE a.notAfter <= :now AND a.deleted = false"),
+	@NamedQuery(name = "AhHost.deactivateByHardwareUuids", query = "UPDATE AhHost a SET a.deleted = true, a.modifiedDate = :modifiedDate WHERE upper(a.hardwareUuid) IN :hardwareUuids AND a.deleted = false") })
 public class AhHost implements Serializable {
     private static final long serialVersionUID = 1L;
     @Id
@@ -85,6 +98,11 @@ public class AhHost implements Serializable {
     private Boolean trusted;
     @Column(name = "asset_tags")
     private String assetTags;
+    @Column(name = "not_after")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date notAfter;
+    @Column(name = "fingerprint")
+    private String fingerprint;
 
     public AhHost() {
 	deleted = false;
@@ -96,6 +114,30 @@ public class AhHost implements Serializable {
 	this.id = id;
     }
 
+    /**
+     * Used by the summary query which leaves out the certificate, SAML and tag
+     * columns
+     */
+    public AhHost(String id, String hardwareUuid, String hostName, String biosMleUuid, String vmmMleUuid,
+	    String aikSha256, String connectionUrl, String validTo, Date notAfter, Boolean trusted, Date createdDate,
+	    String createdBy, Date modifiedDate, String modifiedBy, Boolean deleted) {
+	this.id = id;
+	this.hardwareUuid = hardwareUuid;
+	this.hostName = hostName;
+	this.biosMleUuid = biosMleUuid;
+	this.vmmMleUuid = vmmMleUuid;
+	this.aikSha256 = aikSha256;
+	this.connectionUrl = connectionUrl;
+	this.validTo = validTo;
+	this.notAfter = notAfter;
+	this.trusted = trusted;
+	this.createdDate = createdDate;
+	this.createdBy = createdBy;
+	this.modifiedDate = modifiedDate;
+	this.modifiedBy = modifiedBy;
+	this.deleted = deleted;
+    }
+
     public String getId() {
 	return id;
     }
@@ -240,6 +282,22 @@ public class AhHost implements Serializable {
 	this.assetTags = assetTags;
     }
 
+    public Date getNotAfter() {
+	return notAfter;
+    }
+
+    public void setNotAfter(Date notAfter) {
+	this.notAfter = notAfter;
+    }
+
+    public String getFingerprint() {
+	return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+	this.fingerprint = fingerprint;
+    }
+
     @Override
     public int hashCode() {
 	int hash = 0;
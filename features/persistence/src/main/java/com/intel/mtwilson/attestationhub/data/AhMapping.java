@@ -29,9 +29,13 @@ import org.eclipse.persistence.annotations.UuidGenerator;
 @XmlRootElement
 @Cacheable(false)
 @NamedQueries({ @NamedQuery(name = "AhMapping.findAll", query = "SELECT a FROM AhMapping a"),
+	@NamedQuery(name = "AhMapping.findAllActive", query = "SELECT a FROM AhMapping a WHERE a.deleted = false"),
 	@NamedQuery(name = "AhMapping.findById", query = "SELECT a FROM AhMapping a WHERE a.id = :id"),
 	@NamedQuery(name = "AhMapping.findByTenantId", query = "SELECT a FROM AhMapping a WHERE a.tenant.id = :tenantId"),
 	@NamedQuery(name = "AhMapping.findByHostHardwareUuid", query = "SELECT a FROM AhMapping a WHERE a.hostHardwareUuid = :hostHardwareUuid"),
+	@NamedQuery(name = "AhMapping.findActiveByTenantId", query = "SELECT a FROM AhMapping a WHERE a.tenant.id = :tenantId AND a.deleted = false"),
+	@NamedQuery(name = "AhMapping.findActiveByHostHardwareUuid", query = "SELECT a FROM AhMapping a WHERE a.hostHardwareUuid = :hostHardwareUuid AND a.deleted = false"),
+	@NamedQuery(name = "AhMapping.findActiveHostsOfActiveTenants", query = "SELECT t.id, m.id, h.id, h.hardwareUuid, h.hostName, h.trustTagsJson, h.assetTags, h.validTo, h.trusted, h.fingerprint, h.modifiedDate FROM AhMapping m JOIN m.tenant t, AhHost h WHERE m.deleted = false AND t.deleted = false AND h.deleted = false AND upper(h.hardwareUuid) = upper(m.hostHardwareUuid) ORDER BY t.id, m.id"),
 	@NamedQuery(name = "AhMapping.findByCreatedDate", query = "SELECT a FROM AhMapping a WHERE a.createdDate = :createdDate"),
 	@NamedQuery(name = "AhMapping.findByCreatedBy", query = "SELECT a FROM AhMapping a WHERE a.createdBy = :createdBy"),
 	@NamedQuery(name = "AhMapping.findByModifiedDate", query = "SELECT a FROM AhMapping a WHERE a.modifiedDate = :modifiedDate"),
@@ -36,6 +36,7 @@ import org.eclipse.persistence.annotations.UuidGenerator;
 @XmlRootElement
 @Cacheable(false)
 @NamedQueries({ @NamedQuery(name = "AhTenant.findAll", query = "SELECT a FROM AhTenant a"),
+	@NamedQuery(name = "AhTenant.findAllActive", query = "SELECT a FROM AhTenant a WHERE a.deleted = false"),
 	@NamedQuery(name = "AhTenant.findById", query = "SELECT a FROM AhTenant a WHERE a.id = :id"),
 	@NamedQuery(name = "AhTenant.findByTenantName", query = "SELECT a FROM AhTenant a WHERE a.tenantName = :tenantName"),
 	@NamedQuery(name = "AhTenant.findByTenantKey", query = "SELECT a FROM AhTenant a WHERE a.tenantKey = :tenantKey"),
@@ -45,6 +46,7 @@ import org.eclipse.persistence.annotations.UuidGenerator;
 	@NamedQuery(name = "AhTenant.findByModifiedDate", query = "SELECT a FROM AhTenant a WHERE a.modifiedDate = :modifiedDate"),
 	@NamedQuery(name = "AhTenant.findByModifiedBy", query = "SELECT a FROM AhTenant a WHERE a.modifiedBy = :modifiedBy"),
 	@NamedQuery(name = "AhTenant.findByTenantNameSearchCriteria", query = "SELECT a FROM AhTenant a WHERE upper(a.tenantName) = :tenantName"),
+	@NamedQuery(name = "AhTenant.findActiveByTenantNameSearchCriteria", query = "SELECT a FROM AhTenant a WHERE upper(a.tenantName) = :tenantName AND a.deleted = false"),
 	@NamedQuery(name = "AhTenant.findByDeleted", query = "SELECT a FROM AhTenant a WHERE a.deleted = :deleted") })
 public class AhTenant implements Serializable {
     private static final long serialVersionUID = 1L;
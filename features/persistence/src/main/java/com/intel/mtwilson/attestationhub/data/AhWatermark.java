@@ -0,0 +1,108 @@
+package com.intel.mtwilson.attestationhub.data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Position up to which the data from a source has been stored in the hub.
+ * The ids of the latest records are kept along with it, so that the records
+ * fetched again in the overlap window can be skipped.
+ */
+@Entity
+@Table(name = "ah_watermark")
+@XmlRootElement
+@Cacheable(false)
+@NamedQueries({ @NamedQuery(name = "AhWatermark.findAll", query = "SELECT a FROM AhWatermark a"),
+	@NamedQuery(name = "AhWatermark.findByName", query = "SELECT a FROM AhWatermark a WHERE a.name = :name") })
+public class AhWatermark implements Serializable {
+    private static final long serialVersionUID = 1L;
+    @Id
+    @Basic(optional = false)
+    private String name;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date watermark;
+    @Column(name = "recent_ids")
+    private String recentIds;
+    @Column(name = "modified_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date modifiedDate;
+
+    public AhWatermark() {
+    }
+
+    public AhWatermark(String name) {
+	this.name = name;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public void setName(String name) {
+	this.name = name;
+    }
+
+    public Date getWatermark() {
+	return watermark;
+    }
+
+    public void setWatermark(Date watermark) {
+	this.watermark = watermark;
+    }
+
+    /**
+     * @return comma separated ids of the records at the end of the watermark
+     */
+    public String getRecentIds() {
+	return recentIds;
+    }
+
+    public void setRecentIds(String recentIds) {
+	this.recentIds = recentIds;
+    }
+
+    public Date getModifiedDate() {
+	return modifiedDate;
+    }
+
+    public void setModifiedDate(Date modifiedDate) {
+	this.modifiedDate = modifiedDate;
+    }
+
+    @Override
+    public int hashCode() {
+	int hash = 0;
+	hash += (name != null ? name.hashCode() : 0);
+	return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+	if (!(object instanceof AhWatermark)) {
+	    return false;
+	}
+	AhWatermark other = (AhWatermark) object;
+	if ((this.name == null && other.name != null) || (this.name != null && !this.name.equals(other.name))) {
+	    return false;
+	}
+	return true;
+    }
+
+    @Override
+    public String toString() {
+	return "com.intel.mtwilson.attestationhub.data.AhWatermark[ name=" + name + " ]";
+    }
+
+}
@@ -2,11 +2,15 @@ package com.intel.mtwilson.attestationhub.service;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Properties;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.apache.commons.dbcp.BasicDataSource;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,31 +20,61 @@ import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.controller.AhHostJpaController;
 import com.intel.mtwilson.attestationhub.controller.AhMappingJpaController;
 import com.intel.mtwilson.attestationhub.controller.AhTenantJpaController;
+import com.intel.mtwilson.attestationhub.controller.AhWatermarkJpaController;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.configuration.ConfigurationProvider;
 
+/**
+ * Hands out the JPA controllers of the hub. All the controllers share a single
+ * EntityManagerFactory per JVM which is backed by a bounded JDBC connection
+ * pool. The factory is created on first use and closed by a shutdown hook.
+ */
 public class PersistenceServiceFactory {
     private static final Logger log = LoggerFactory.getLogger(PersistenceServiceFactory.class);
+    private static final PersistenceServiceFactory persistenceServiceFactory = new PersistenceServiceFactory();
 
-    private EntityManagerFactory entityManagerFactory;
-    private static Properties jpaProperties;
+    private static final int DEFAULT_POOL_MIN_SIZE = 2;
+    private static final int DEFAULT_POOL_MAX_SIZE = 20;
+    private static final int DEFAULT_POOL_IDLE_TIMEOUT_SECONDS = 300;
+    private static final int DEFAULT_MAX_OPEN_STATEMENTS = 0;
+
+    private static String dbDriver;
+    private static String dbUrl;
+    private static String dbUsername;
+    private static String dbPassword;
+    private static int poolMinSize = DEFAULT_POOL_MIN_SIZE;
+    private static int poolMaxSize = DEFAULT_POOL_MAX_SIZE;
+    private static int poolIdleTimeoutSeconds = DEFAULT_POOL_IDLE_TIMEOUT_SECONDS;
+    private static int maxOpenStatements = DEFAULT_MAX_OPEN_STATEMENTS;
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static BasicDataSource dataSource;
+    private static boolean shutdownHookRegistered = false;
 
     static {
 	File hubPropertiesFile = new File(
 		Folders.configuration() + File.separator + Constants.ATTESTATION_HUB_PROPRRTIES_FILE_NAME);
 	ConfigurationProvider provider;
-	jpaProperties = new Properties();
 	try {
 	    provider = ConfigurationFactory.createConfigurationProvider(hubPropertiesFile);
 	    Configuration loadedConfiguration = provider.load();
-	    jpaProperties.put("javax.persistence.jdbc.driver",
-		    loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_DRIVER));
-	    jpaProperties.put("javax.persistence.jdbc.url", loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_URL));
-	    jpaProperties.put("javax.persistence.jdbc.user",
-		    loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_USERNAME));
-	    jpaProperties.put("javax.persistence.jdbc.password",
-		    loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_PASSWORD));
-
+	    dbDriver = loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_DRIVER);
+	    dbUrl = loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_URL);
+	    dbUsername = loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_USERNAME);
+	    dbPassword = loadedConfiguration.get(Constants.ATTESTATION_HUB_DB_PASSWORD);
+	    poolMinSize = getInteger(loadedConfiguration, Constants.ATTESTATION_HUB_DB_POOL_MIN_SIZE,
+		    DEFAULT_POOL_MIN_SIZE);
+	    poolMaxSize = getInteger(loadedConfiguration, Constants.ATTESTATION_HUB_DB_POOL_MAX_SIZE,
+		    DEFAULT_POOL_MAX_SIZE);
+	    poolIdleTimeoutSeconds = getInteger(loadedConfiguration, Constants.ATTESTATION_HUB_DB_POOL_IDLE_TIMEOUT,
+		    DEFAULT_POOL_IDLE_TIMEOUT_SECONDS);
+	    maxOpenStatements = getInteger(loadedConfiguration, Constants.ATTESTATION_HUB_DB_MAX_OPEN_STATEMENTS,
+		    DEFAULT_MAX_OPEN_STATEMENTS);
+	    if (poolMinSize > poolMaxSize) {
+		log.warn("Configured pool min size {} exceeds max size {}. Using {} for both", poolMinSize,
+			poolMaxSize, poolMaxSize);
+		poolMinSize = poolMaxSize;
+	    }
 	} catch (IOException e1) {
 	    log.error("Failed to fetch database properties from {}", Constants.ATTESTATION_HUB_PROPRRTIES_FILE_NAME,
 		    e1);
@@ -48,28 +82,114 @@ public class PersistenceServiceFactory {
 
     }
 
+    private static int getInteger(Configuration configuration, String key, int defaultValue) {
+	String value = configuration.get(key);
+	if (value == null || value.trim().isEmpty()) {
+	    return defaultValue;
+	}
+	try {
+	    int intValue = Integer.parseInt(value.trim());
+	    if (intValue < 0) {
+		log.error("Invalid value {} configured for {}. Defaulting to {}", value, key, defaultValue);
+		return defaultValue;
+	    }
+	    return intValue;
+	} catch (NumberFormatException e) {
+	    log.error("Invalid value {} configured for {}. Defaulting to {}", value, key, defaultValue);
+	    return defaultValue;
+	}
+    }
+
     public static PersistenceServiceFactory getInstance() {
-	return new PersistenceServiceFactory();
+	return persistenceServiceFactory;
     }
 
-    public AhTenantJpaController getTenantController() {
-	log.debug("initializing the tenant controller");
+    private static synchronized EntityManagerFactory getEntityManagerFactory() {
+	if (entityManagerFactory != null && entityManagerFactory.isOpen()) {
+	    return entityManagerFactory;
+	}
+	log.info("Initializing the entity manager factory with a connection pool of min {} and max {} connections",
+		poolMinSize, poolMaxSize);
+	dataSource = createDataSource();
+	Map<String, Object> jpaProperties = new HashMap<String, Object>();
+	jpaProperties.put(PersistenceUnitProperties.NON_JTA_DATASOURCE, dataSource);
 	entityManagerFactory = Persistence.createEntityManagerFactory(Constants.ATTESTATION_HUB_DATABASE_NAME,
 		jpaProperties);
-	return new AhTenantJpaController(entityManagerFactory);
+	if (!shutdownHookRegistered) {
+	    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    close();
+		}
+	    }, "attestation-hub-persistence-shutdown"));
+	    shutdownHookRegistered = true;
+	}
+	return entityManagerFactory;
+    }
+
+    private static BasicDataSource createDataSource() {
+	BasicDataSource basicDataSource = new BasicDataSource();
+	basicDataSource.setDriverClassName(dbDriver);
+	basicDataSource.setUrl(dbUrl);
+	basicDataSource.setUsername(dbUsername);
+	basicDataSource.setPassword(dbPassword);
+	basicDataSource.setInitialSize(poolMinSize);
+	basicDataSource.setMinIdle(poolMinSize);
+	basicDataSource.setMaxIdle(poolMaxSize);
+	basicDataSource.setMaxActive(poolMaxSize);
+	// Idle connections above the minimum are evicted once they have been
+	// unused for the configured timeout
+	basicDataSource.setMinEvictableIdleTimeMillis(poolIdleTimeoutSeconds * 1000L);
+	basicDataSource.setTimeBetweenEvictionRunsMillis(Math.max(poolIdleTimeoutSeconds * 1000L / 2, 1000L));
+	basicDataSource.setValidationQuery("SELECT 1");
+	basicDataSource.setTestOnBorrow(true);
+	// The prepared statements are pooled per connection. The limit is a
+	// hard cap on the statements open at once on a connection, and
+	// preparing one more fails instead of evicting an idle one, so it is
+	// unlimited unless attestation-hub.db.max.open.statements is set. The
+	// hub uses a small fixed set of queries, which bounds the pool anyway.
+	basicDataSource.setPoolPreparedStatements(true);
+	basicDataSource.setMaxOpenPreparedStatements(maxOpenStatements > 0 ? maxOpenStatements : -1);
+	return basicDataSource;
+    }
+
+    /**
+     * Closes the shared entity manager factory and the connection pool behind
+     * it. A later call for a controller initializes them again.
+     */
+    public static synchronized void close() {
+	if (entityManagerFactory != null && entityManagerFactory.isOpen()) {
+	    log.info("Closing the entity manager factory");
+	    entityManagerFactory.close();
+	}
+	entityManagerFactory = null;
+	if (dataSource != null) {
+	    try {
+		dataSource.close();
+	    } catch (SQLException e) {
+		log.error("Error closing the database connection pool", e);
+	    }
+	    dataSource = null;
+	}
+    }
+
+    public AhTenantJpaController getTenantController() {
+	log.debug("initializing the tenant controller");
+	return new AhTenantJpaController(getEntityManagerFactory());
     }
 
     public AhHostJpaController getHostController() {
 	log.debug("initializing the host controller");
-	entityManagerFactory = Persistence.createEntityManagerFactory(Constants.ATTESTATION_HUB_DATABASE_NAME,
-		jpaProperties);
-	return new AhHostJpaController(entityManagerFactory);
+	return new AhHostJpaController(getEntityManagerFactory());
     }
 
     public AhMappingJpaController getTenantToHostMappingController() {
 	log.debug("initializing the mapping controller");
-	entityManagerFactory = Persistence.createEntityManagerFactory(Constants.ATTESTATION_HUB_DATABASE_NAME,
-		jpaProperties);
-	return new AhMappingJpaController(entityManagerFactory);
+	return new AhMappingJpaController(getEntityManagerFactory());
+    }
+
+    public AhWatermarkJpaController getWatermarkController() {
+	log.debug("initializing the watermark controller");
+	return new AhWatermarkJpaController(getEntityManagerFactory());
     }
 }
@@ -21,7 +21,6 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 
 import com.intel.attestationhub.plugin.nova.identity.IdentityService;
 import com.intel.attestationhub.plugin.nova.identity.IdentityServiceFactory;
@@ -93,7 +92,7 @@ public class NovaRsClient {
     }
 
     protected void sendDataToEndpoint(String jsonData) throws AttestationHubException {
-	HttpClient httpClient = HttpClientBuilder.create().build();
+	HttpClient httpClient = NovaRsClientBuilder.buildHttpClient();
 
 	String url = webTarget.getUri().toString();
 	HttpPost postRequest = new HttpPost(url);
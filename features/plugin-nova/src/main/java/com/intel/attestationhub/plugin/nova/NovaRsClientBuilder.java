@@ -13,9 +13,13 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
 
 import com.intel.attestationhub.api.Tenant.Plugin;
 import com.intel.attestationhub.api.Tenant.Property;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 
 /**
@@ -24,6 +28,8 @@ import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
  */
 public class NovaRsClientBuilder {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NovaRsClientBuilder.class);
+    private static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    private static final int DEFAULT_READ_TIMEOUT_SECONDS = 60;
 
     public static NovaRsClient build(Plugin plugin) throws AttestationHubException {
 	try {
@@ -79,4 +85,27 @@ public class NovaRsClientBuilder {
 	}
     }
 
+    /**
+     * Builds the client for the calls to keystone and nova, with the connect
+     * and read timeouts set by attestation-hub.push.connect.timeout and
+     * attestation-hub.push.read.timeout, so that a push to an unresponsive
+     * endpoint fails instead of hanging
+     */
+    public static HttpClient buildHttpClient() {
+	int connectTimeout = getTimeoutMillis(
+		com.intel.mtwilson.attestationhub.common.Constants.ATTESTATION_HUB_PUSH_CONNECT_TIMEOUT,
+		DEFAULT_CONNECT_TIMEOUT_SECONDS);
+	int readTimeout = getTimeoutMillis(
+		com.intel.mtwilson.attestationhub.common.Constants.ATTESTATION_HUB_PUSH_READ_TIMEOUT,
+		DEFAULT_READ_TIMEOUT_SECONDS);
+	RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+		.setConnectionRequestTimeout(connectTimeout).setSocketTimeout(readTimeout).build();
+	return HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
+    }
+
+    private static int getTimeoutMillis(String key, int defaultSeconds) {
+	int timeout = AttestationHubConfigUtil.getInteger(key, defaultSeconds);
+	return (timeout > 0 ? timeout : defaultSeconds) * 1000;
+    }
+
 }
@@ -16,8 +16,8 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 
+import com.intel.attestationhub.plugin.nova.NovaRsClientBuilder;
 import com.intel.attestationhub.plugin.nova.ValidationUtil;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 
@@ -40,7 +40,7 @@ public abstract class AbstractIdentityService implements IdentityService {
 	    String password, String domainName) throws AttestationHubException {
 	String authToken;
 	long start = new Date().getTime();
-	HttpClient httpClient = HttpClientBuilder.create().build();
+	HttpClient httpClient = NovaRsClientBuilder.buildHttpClient();
 
 	String authEndpoint = getAuthEndpoint(keystoneEndpoint);
 
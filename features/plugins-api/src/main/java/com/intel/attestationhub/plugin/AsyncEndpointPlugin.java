@@ -0,0 +1,36 @@
+package com.intel.attestationhub.plugin;
+
+import java.util.concurrent.Future;
+
+import com.intel.attestationhub.api.PublishData;
+import com.intel.attestationhub.api.Tenant.Plugin;
+import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+
+/**
+ * Plugin which pushes the data without blocking the hub. The hosts of a tenant
+ * are split in chunks of at most {@link #getMaxBatchSize(Plugin)} hosts, and
+ * all the chunks are handed to the plugin before the hub waits for any of
+ * them. Each chunk is a {@link PublishData} of version 2 with its chunk index
+ * and the number of chunks of the push set.
+ *
+ * Plugins implementing only {@link EndpointPlugin} are called through
+ * {@link EndpointPluginAdapter}.
+ */
+public interface AsyncEndpointPlugin {
+    /**
+     * @return maximum number of hosts per chunk, or 0 to push all the hosts
+     *         of the tenant at once
+     */
+    public int getMaxBatchSize(Plugin plugin);
+
+    /**
+     * Starts pushing the data and returns without waiting for the push to
+     * complete
+     *
+     * @return completes when the push is complete, with the error of the push
+     *         if it failed. Cancelling it should stop the push.
+     * @throws AttestationHubException
+     *             if the push could not be started
+     */
+    public Future<Void> pushDataAsync(PublishData data, Plugin plugin) throws AttestationHubException;
+}
@@ -0,0 +1,41 @@
+package com.intel.attestationhub.plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.intel.attestationhub.api.PublishData;
+import com.intel.attestationhub.api.Tenant.Plugin;
+import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+
+/**
+ * Calls an {@link EndpointPlugin} as an {@link AsyncEndpointPlugin}. The push
+ * runs in the calling thread and the returned future is already complete.
+ * The data is not split, as these plugins expect all the hosts of the tenant
+ * in one push.
+ */
+public class EndpointPluginAdapter implements AsyncEndpointPlugin {
+    private final EndpointPlugin endpointPlugin;
+
+    public EndpointPluginAdapter(EndpointPlugin endpointPlugin) {
+	this.endpointPlugin = endpointPlugin;
+    }
+
+    @Override
+    public int getMaxBatchSize(Plugin plugin) {
+	return 0;
+    }
+
+    @Override
+    public Future<Void> pushDataAsync(final PublishData data, final Plugin plugin) throws AttestationHubException {
+	FutureTask<Void> push = new FutureTask<>(new Callable<Void>() {
+	    @Override
+	    public Void call() throws Exception {
+		endpointPlugin.pushData(data, plugin);
+		return null;
+	    }
+	});
+	push.run();
+	return push;
+    }
+}
@@ -16,11 +16,27 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.jose4j.jws.AlgorithmIdentifiers;
@@ -36,15 +52,17 @@ import com.intel.attestationhub.api.HostTrustResponse;
 import com.intel.attestationhub.api.PublishData;
 import com.intel.attestationhub.api.Tenant;
 import com.intel.attestationhub.api.Tenant.Plugin;
-import com.intel.attestationhub.plugin.EndpointPlugin;
+import com.intel.attestationhub.pipeline.PipelineStage;
+import com.intel.attestationhub.pipeline.StageProcessor;
+import com.intel.attestationhub.plugin.AsyncEndpointPlugin;
 import com.intel.attestationhub.plugin.EndpointPluginFactory;
 import com.intel.attestationhub.service.AttestationHubService;
 import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
 import com.intel.mtwilson.Folders;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
 import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.controller.AhTenantJpaController;
 import com.intel.mtwilson.attestationhub.data.AhHost;
-import com.intel.mtwilson.attestationhub.data.AhMapping;
 import com.intel.mtwilson.attestationhub.data.AhTenant;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 import com.intel.mtwilson.attestationhub.service.PersistenceServiceFactory;
@@ -57,9 +75,32 @@ public class PluginManager {
     private static final String PRIVATE_KEY_PATH = Folders.configuration() + File.separator
 	    + Constants.PRIVATE_KEY_FILE;
 
+    private static final int DEFAULT_PUBLISH_THREADS = 4;
+    private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    private static final int MIN_REPORTS_PER_SIGN_TASK = 50;
+    private static final int DEFAULT_REPORT_CACHE_SIZE = 20000;
+    private static final int DEFAULT_PUSH_CHUNKS_IN_FLIGHT = 4;
+
     private static PluginManager pluginManager = null;
 
-    public static PluginManager getInstance() {
+    // not the monitor of the manager, which is held by the thread waiting
+    // for the publish stages to finish
+    private final Object signingLock = new Object();
+    private ExecutorService signingPool = null;
+    private PrivateKey privateKey = null;
+    private long privateKeyLastModified = 0;
+    private long privateKeyLength = 0;
+    private final SignedReportCache reportCache;
+    private final PluginPushExecutor pushExecutor = new PluginPushExecutor();
+    private final PublishedHostsTracker publishedHostsTracker = new PublishedHostsTracker();
+
+    private PluginManager() {
+	int cacheSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_REPORT_CACHE_SIZE,
+		DEFAULT_REPORT_CACHE_SIZE);
+	reportCache = new SignedReportCache(cacheSize < 0 ? DEFAULT_REPORT_CACHE_SIZE : cacheSize);
+    }
+
+    public static synchronized PluginManager getInstance() {
 	if (pluginManager == null) {
 	    pluginManager = new PluginManager();
 	}
@@ -67,7 +108,18 @@ public class PluginManager {
 	return pluginManager;
     }
 
-    public void synchAttestationInfo() {
+    /**
+     * Synchronized as the tenants are updated by the poller and by the SAML
+     * expiry thread of the scheduler
+     *
+     * The tenants go through the build, sign and push stages, so the reports
+     * of a tenant are signed and pushed while the reports of the next tenants
+     * are being built. The report of a host is built and signed once per
+     * cycle and shared by all the tenants the host is mapped to. The push
+     * stage hands the pushes to the plugins over to the push executor, and
+     * the cycle ends once all of them are complete or cancelled.
+     */
+    public synchronized void synchAttestationInfo() {
 	log.info("Calling out plugins to push host data");
 
 	List<AhTenant> ahTenantList = retrievAllTenants();
@@ -75,76 +127,238 @@ public class PluginManager {
 	    return;
 	}
 	log.info("Fetched {} tenants", ahTenantList.size());
-
-	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	Set<String> tenantIds = new HashSet<>();
 	for (AhTenant ahTenant : ahTenantList) {
-	    Tenant readTenantConfig;
+	    tenantIds.add(ahTenant.getId());
+	}
+	publishedHostsTracker.retainTenants(tenantIds);
+	if (ahTenantList.isEmpty()) {
+	    return;
+	}
+	final Map<String, List<AhHost>> hostsByTenant = PersistenceServiceFactory.getInstance()
+		.getTenantToHostMappingController().findActiveHostsByTenant();
+	log.info("Fetched the active hosts of {} tenants", hostsByTenant.size());
+	final ConcurrentMap<String, HostReport> hostReports = new ConcurrentHashMap<>();
+	Key key = null;
+	try {
+	    key = getPrivateKey();
+	} catch (AttestationHubException e) {
+	    log.error("No private key found for encypting trust report", e);
+	}
+	final Key signingKey = key;
+	final Queue<Future<Void>> pushes = new ConcurrentLinkedQueue<>();
+
+	int threads = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUBLISH_THREADS,
+		DEFAULT_PUBLISH_THREADS);
+	int queueSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PIPELINE_QUEUE_SIZE,
+		DEFAULT_PIPELINE_QUEUE_SIZE);
+	PipelineStage<AhTenant, TenantReport> buildStage = new PipelineStage<>("build", queueSize, threads, 1,
+		new StageProcessor<AhTenant, TenantReport>() {
+		    @Override
+		    public List<TenantReport> process(List<AhTenant> ahTenants) throws Exception {
+			List<TenantReport> tenantReports = new ArrayList<>(ahTenants.size());
+			for (AhTenant ahTenant : ahTenants) {
+			    TenantReport tenantReport = buildTenantReport(ahTenant,
+				    hostsByTenant.get(ahTenant.getId()), hostReports, signingKey);
+			    if (tenantReport != null) {
+				tenantReports.add(tenantReport);
+			    }
+			}
+			return tenantReports;
+		    }
+		});
+	PipelineStage<TenantReport, TenantReport> signStage = new PipelineStage<>("sign", queueSize, threads, 1,
+		new StageProcessor<TenantReport, TenantReport>() {
+		    @Override
+		    public List<TenantReport> process(List<TenantReport> tenantReports) throws Exception {
+			for (TenantReport tenantReport : tenantReports) {
+			    signTenantReport(tenantReport);
+			}
+			return tenantReports;
+		    }
+		});
+	PipelineStage<TenantReport, Void> pushStage = new PipelineStage<>("push", queueSize, threads, 1,
+		new StageProcessor<TenantReport, Void>() {
+		    @Override
+		    public List<Void> process(List<TenantReport> tenantReports) throws Exception {
+			for (TenantReport tenantReport : tenantReports) {
+			    log.info("Publishing data to the configured plugins for the tenant: {}",
+				    tenantReport.ahTenant.getId());
+			    processDataToPlugins(tenantReport, pushes);
+			}
+			return null;
+		    }
+		});
+	buildStage.connect(signStage).connect(pushStage);
+	buildStage.start();
+	try {
+	    for (AhTenant ahTenant : ahTenantList) {
+		buildStage.put(ahTenant);
+	    }
+	} catch (InterruptedException e) {
+	    log.error("Interrupted while publishing data to plugins", e);
+	    Thread.currentThread().interrupt();
+	} finally {
 	    try {
-		readTenantConfig = attestationHubService.readTenantConfig(ahTenant.getId());
-		log.info("Retrieved configuration for the tenant: {}", ahTenant.getId());
-	    } catch (AttestationHubException e) {
-		log.error("Error reading configuration for the tenant {}", ahTenant.getId(), e);
-		continue;
+		buildStage.finish();
+		pushExecutor.awaitAll(pushes);
+	    } catch (InterruptedException e) {
+		log.error("Interrupted while publishing data to plugins", e);
+		Thread.currentThread().interrupt();
+		for (Future<Void> push : pushes) {
+		    push.cancel(true);
+		}
 	    }
+	}
+	log.info("Publishing data to plugins complete. Built the reports of {} hosts. Signed report cache: {}",
+		hostReports.size(), reportCache.getStats());
+    }
 
-	    List<Plugin> plugins = readTenantConfig.getPlugins();
-	    Collection<AhMapping> ahMappingCollection = ahTenant.getAhMappingCollection();
-	    List<HostDetails> hostsData = new ArrayList<HostDetails>();
-	    for (AhMapping ahMapping : ahMappingCollection) {
-		if (ahMapping.getDeleted() != null && ahMapping.getDeleted()) {
-		    log.info("Mapping {} is not active. Skipping. ", ahMapping.getId());
-		    continue;
-		}
+    /**
+     * @param hosts
+     *            active hosts mapped to the tenant
+     * @param hostReports
+     *            reports of the hosts built in this cycle, by host id
+     */
+    private TenantReport buildTenantReport(AhTenant ahTenant, List<AhHost> hosts,
+	    ConcurrentMap<String, HostReport> hostReports, Key signingKey) {
+	// a tenant left without hosts is still pushed to the delta plugins
+	// which were sent hosts, so that they remove them
+	boolean published = publishedHostsTracker.hasPublished(ahTenant.getId());
+	if (hosts == null) {
+	    log.info("No active mappings for tenant: {}", ahTenant.getId());
+	    if (!published) {
+		return null;
+	    }
+	    hosts = Collections.emptyList();
+	}
+	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	Tenant readTenantConfig;
+	try {
+	    readTenantConfig = attestationHubService.readTenantConfig(ahTenant.getId());
+	    log.info("Retrieved configuration for the tenant: {}", ahTenant.getId());
+	} catch (AttestationHubException e) {
+	    log.error("Error reading configuration for the tenant {}", ahTenant.getId(), e);
+	    return null;
+	}
 
-		String hostHardwareUuid = ahMapping.getHostHardwareUuid();
-		AhHost host;
-		try {
-		    host = attestationHubService.findActiveHostByHardwareUuid(hostHardwareUuid);
-		} catch (AttestationHubException e) {
-		    log.error("Unable to find an active host with hardware id={}", hostHardwareUuid, e);
-		    continue;
+	TenantReport tenantReport = new TenantReport(ahTenant, readTenantConfig.getPlugins());
+	for (AhHost host : hosts) {
+	    HostReport hostReport = hostReports.get(host.getId());
+	    if (hostReport == null) {
+		hostReport = populateHostDetails(host, signingKey);
+		if (hostReport != null) {
+		    // another tenant may have built the same host meanwhile
+		    HostReport builtReport = hostReports.putIfAbsent(host.getId(), hostReport);
+		    if (builtReport != null) {
+			hostReport = builtReport;
+		    }
 		}
-		HostDetails details = populateHostDetails(host);
-		if (details != null) {
-		    log.debug("Adding host details of host uuid: {} to the data published to the controller",
-			    host.getId());
-		    hostsData.add(details);
-		} else {
-		    log.error("Populate host details for host uuid: {} returned NULL", host.getId());
+	    }
+	    if (hostReport != null) {
+		log.debug("Adding host details of host uuid: {} to the data published to the controller",
+			host.getId());
+		tenantReport.hostsData.add(hostReport.details);
+		tenantReport.contentKeys.put(host.getId(), hostReport.contentKey);
+		if (hostReport.signing != null) {
+		    tenantReport.reportsToSign.add(hostReport);
 		}
+	    } else {
+		log.error("Populate host details for host uuid: {} returned NULL", host.getId());
 	    }
-	    if (hostsData.size() == 0) {
-		log.info("No host data available for tenant: {}", ahTenant.getId());
-		continue;
+	}
+	if (tenantReport.hostsData.size() == 0) {
+	    log.info("No host data available for tenant: {}", ahTenant.getId());
+	    if (!published) {
+		return null;
+	    }
+	}
+	return tenantReport;
+    }
+
+    /**
+     * Splits the reports of the tenant across the signing pool and waits for
+     * all of them to be signed. A report shared with a tenant signed earlier
+     * or at the same time is signed only once; this waits for that signature.
+     */
+    private void signTenantReport(TenantReport tenantReport) throws InterruptedException {
+	if (tenantReport.reportsToSign.isEmpty()) {
+	    return;
+	}
+	List<HostReport> reportsToSign = tenantReport.reportsToSign;
+	// small tenants are signed by a single task
+	ExecutorService pool = getSigningPool();
+	int taskCount = Math.max(1,
+		Math.min(getSigningThreads(), reportsToSign.size() / MIN_REPORTS_PER_SIGN_TASK));
+	int chunkSize = (reportsToSign.size() + taskCount - 1) / taskCount;
+	List<Callable<Void>> tasks = new ArrayList<>(taskCount);
+	for (int i = 0; i < reportsToSign.size(); i += chunkSize) {
+	    final List<HostReport> chunk = reportsToSign.subList(i, Math.min(i + chunkSize, reportsToSign.size()));
+	    tasks.add(new Callable<Void>() {
+		@Override
+		public Void call() throws Exception {
+		    for (HostReport hostReport : chunk) {
+			// does nothing if the report is already signed
+			hostReport.signing.run();
+		    }
+		    return null;
+		}
+	    });
+	}
+	pool.invokeAll(tasks);
+	for (HostReport hostReport : reportsToSign) {
+	    try {
+		hostReport.signing.get();
+	    } catch (ExecutionException e) {
+		log.error("Error signing the trust report of host: {} for tenant: {}", hostReport.details.uuid,
+			tenantReport.ahTenant.getId(), e);
 	    }
-	    log.info("Publishing data to the configured plugins for the tenant: {}", ahTenant.getId());
-	    processDataToPlugins(ahTenant, hostsData, plugins);
 	}
-	log.info("Publishing data to plugins complete");
+    }
+
+    private ExecutorService getSigningPool() {
+	synchronized (signingLock) {
+	    if (signingPool != null) {
+		return signingPool;
+	    }
+	    final AtomicInteger threadNumber = new AtomicInteger(1);
+	    signingPool = Executors.newFixedThreadPool(getSigningThreads(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+		    Thread thread = new Thread(runnable, "attestation-hub-signer-" + threadNumber.getAndIncrement());
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	    return signingPool;
+	}
+    }
+
+    private int getSigningThreads() {
+	int threads = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_SIGN_THREADS, 0);
+	return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     private List<AhTenant> retrievAllTenants() {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhTenantJpaController tenantController = persistenceServiceFactory.getTenantController();
-	List<AhTenant> ahTenantList = tenantController.findAhTenantEntities();
-	List<AhTenant> activeTenants = new ArrayList<AhTenant>();
+	List<AhTenant> ahTenantList = tenantController.findActiveAhTenantEntities();
 
 	if (ahTenantList == null) {
 	    log.info("No tenants configured");
-	    return activeTenants;
+	    return new ArrayList<AhTenant>();
 	}
-	for (AhTenant ahTenant : ahTenantList) {
-	    if (ahTenant.getDeleted() != null && ahTenant.getDeleted()) {
-		log.info("Tenant {} is not active. Skipping. ", ahTenant.getId());
-		continue;
-	    }
-	    activeTenants.add(ahTenant);
-	}
-	log.info("Fetched {} tenants", ahTenantList.size());
-	return activeTenants;
+	return ahTenantList;
     }
 
-    private HostDetails populateHostDetails(AhHost host) {
+    /**
+     * The trust report and its signature are taken from the signed report
+     * cache if the host has not changed since they were signed
+     * 
+     * @return the details of the host, with the task signing the trust report
+     *         if it is to be signed
+     */
+    private HostReport populateHostDetails(AhHost host, Key signingKey) {
 	if (host == null) {
 	    return null;
 	}
@@ -155,6 +369,14 @@ public class PluginManager {
 	details.hardwareUuid = host.getHardwareUuid();
 	details.trust_report = trustTagsJson;
 	details.hostname = host.getHostName();
+
+	String cacheKey = getReportCacheKey(host);
+	SignedReportCache.SignedReport cachedReport = cacheKey == null ? null : reportCache.get(cacheKey);
+	if (cachedReport != null) {
+	    details.trust_report = cachedReport.trustReport;
+	    details.signed_trust_report = cachedReport.signedTrustReport;
+	    return new HostReport(details, cacheKey, null);
+	}
 	Map<String, List<String>> assetTags = new HashMap<>();
 	ObjectMapper objectMapper = new ObjectMapper();
 
@@ -172,7 +394,7 @@ public class PluginManager {
 	}
 	if (StringUtils.isBlank(trustTagsJson)) {
 	    log.error("** No trust tags json available for host uuid: {} for generating a JWS", host.getId());
-	    return details;
+	    return new HostReport(details, cacheKey, null);
 	}
 
 	String errorMsg = "Error parsing trust response";
@@ -183,10 +405,7 @@ public class PluginManager {
 	    hostTrustResponse.setAssetTags(assetTags);
 	    String trustReportWithAdditions = objectMapper.writeValueAsString(hostTrustResponse);
 	    details.trust_report = trustReportWithAdditions;
-	    String signedTrustReport = createSignedTrustReport(trustReportWithAdditions);
-	    if (StringUtils.isNotBlank(signedTrustReport)) {
-		details.signed_trust_report = signedTrustReport;
-	    }
+	    return new HostReport(details, cacheKey, newSigningTask(details, cacheKey, signingKey));
 	} catch (JsonParseException e) {
 	    log.error(errorMsg, e);
 	} catch (JsonMappingException e) {
@@ -195,42 +414,176 @@ public class PluginManager {
 	    log.error(errorMsg, e);
 	}
 
-	return details;
+	return new HostReport(details, cacheKey, null);
+
+    }
+
+    private FutureTask<Void> newSigningTask(final HostDetails details, final String cacheKey,
+	    final Key signingKey) {
+	return new FutureTask<>(new Callable<Void>() {
+	    @Override
+	    public Void call() throws Exception {
+		String signedTrustReport = createSignedTrustReport(details.trust_report, signingKey);
+		if (StringUtils.isBlank(signedTrustReport)) {
+		    return null;
+		}
+		details.signed_trust_report = signedTrustReport;
+		if (cacheKey != null) {
+		    reportCache.put(cacheKey, details.trust_report, signedTrustReport);
+		}
+		return null;
+	    }
+	});
+    }
 
+    /**
+     * @return key of the content of the host, by its fingerprint and the
+     *         validity of its SAML or else its modified date, or null if the
+     *         host has neither
+     */
+    private String getReportCacheKey(AhHost host) {
+	if (StringUtils.isNotBlank(host.getFingerprint())) {
+	    // the fingerprint is kept by an attestation which only renews the
+	    // SAML, while the report carries its validity
+	    return host.getId() + ":" + host.getFingerprint() + "@" + host.getValidTo();
+	}
+	if (host.getModifiedDate() != null) {
+	    return host.getId() + "@" + host.getModifiedDate().getTime();
+	}
+	return null;
     }
 
-    private void processDataToPlugins(AhTenant ahTenant, List<HostDetails> hostsData, List<Plugin> plugins) {
-	if (plugins == null || hostsData == null || ahTenant == null) {
+    /**
+     * Queues a push for each plugin of the tenant
+     * 
+     * @param pushes
+     *            the queued pushes are added to it
+     */
+    private void processDataToPlugins(final TenantReport tenantReport, Queue<Future<Void>> pushes) {
+	final AhTenant ahTenant = tenantReport.ahTenant;
+	if (tenantReport.plugins == null) {
 	    return;
 	}
-	for (Plugin plugin : plugins) {
-	    try {
-		PublishData data = new PublishData();
-		data.tenantId = ahTenant.getId();
-		data.hostDetailsList = hostsData;
-		EndpointPlugin endpointPlugin = EndpointPluginFactory.getPluginImpl(plugin);
-		if (endpointPlugin == null) {
-		    log.info("No plugin available for : {} for tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
-		    continue;
-		}
-		log.info("Before pushing data to plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
-		endpointPlugin.pushData(data, plugin);
-		log.info("After pushing data for plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
-	    } catch (AttestationHubException e) {
-		log.error("Error pushing data to plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId(), e);
+	for (final Plugin plugin : tenantReport.plugins) {
+	    final AsyncEndpointPlugin endpointPlugin = EndpointPluginFactory.getAsyncPluginImpl(plugin);
+	    if (endpointPlugin == null) {
+		log.info("No plugin available for : {} for tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
+		continue;
+	    }
+	    String pushKey = ahTenant.getId() + "/" + plugin.getName();
+	    String description = "Push to plugin " + plugin.getName() + " of tenant " + ahTenant.getId();
+	    if (pushExecutor.isInFlight(pushKey)) {
+		log.info("{} skipped, as the previous one is still in progress", description);
+		continue;
+	    }
+	    final PublishData data = publishedHostsTracker.getPublishData(ahTenant.getId(), plugin,
+		    tenantReport.hostsData, tenantReport.contentKeys);
+	    if (data == null) {
 		continue;
 	    }
+	    Future<Void> push = pushExecutor.submit(pushKey, plugin.getName(), description,
+		    new PluginPushExecutor.PluginPush() {
+		@Override
+		public void push() throws Exception {
+		    log.info("Before pushing data to plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
+		    pushInChunks(endpointPlugin, plugin, data);
+		}
+
+		@Override
+		public void pushed() {
+		    publishedHostsTracker.pushed(ahTenant.getId(), plugin, data, tenantReport.contentKeys);
+		    log.info("After pushing data for plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId());
+		}
+
+		@Override
+		public void failed(Exception e) {
+		    publishedHostsTracker.failed(ahTenant.getId(), plugin);
+		    if (e instanceof InterruptedException) {
+			log.error("Push to plugin : {} of tenant with id: {} interrupted", plugin.getName(), ahTenant.getId());
+			Thread.currentThread().interrupt();
+		    } else {
+			log.error("Error pushing data to plugin : {} of tenant with name : {} and id: {}", plugin.getName(), ahTenant.getTenantName(), ahTenant.getId(), e);
+		    }
+		}
+	    });
+	    if (push != null) {
+		pushes.add(push);
+	    }
 	}
 
     }
 
-    private String createSignedTrustReport(String trustReportWithAdditions) {
-	Key privateKey = null;
+    /**
+     * Hands the chunks of the data to the plugin, with at most
+     * attestation-hub.push.chunks.in.flight of them in progress at a time, and
+     * waits for them. If a chunk fails or the wait is interrupted, the chunks
+     * still in progress are cancelled and the rest are not pushed.
+     */
+    private void pushInChunks(AsyncEndpointPlugin endpointPlugin, Plugin plugin, PublishData data)
+	    throws AttestationHubException, InterruptedException {
+	List<PublishData> chunks = splitIntoChunks(data, endpointPlugin.getMaxBatchSize(plugin));
+	int inFlight = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUSH_CHUNKS_IN_FLIGHT,
+		DEFAULT_PUSH_CHUNKS_IN_FLIGHT);
+	if (inFlight <= 0) {
+	    inFlight = DEFAULT_PUSH_CHUNKS_IN_FLIGHT;
+	}
+	Deque<Future<Void>> chunkPushes = new ArrayDeque<>(Math.min(inFlight, chunks.size()));
+	boolean complete = false;
 	try {
-	    privateKey = loadPrivateKey();
-	} catch (AttestationHubException e) {
-	    log.error("No private key found for encypting trust report", e);
+	    for (PublishData chunk : chunks) {
+		if (chunkPushes.size() >= inFlight) {
+		    awaitChunk(chunkPushes.peekFirst());
+		    chunkPushes.pollFirst();
+		}
+		chunkPushes.addLast(endpointPlugin.pushDataAsync(chunk, plugin));
+	    }
+	    while (!chunkPushes.isEmpty()) {
+		awaitChunk(chunkPushes.peekFirst());
+		chunkPushes.pollFirst();
+	    }
+	    complete = true;
+	} finally {
+	    if (!complete) {
+		for (Future<Void> chunkPush : chunkPushes) {
+		    chunkPush.cancel(true);
+		}
+	    }
+	}
+    }
+
+    private static void awaitChunk(Future<Void> chunkPush) throws AttestationHubException, InterruptedException {
+	try {
+	    chunkPush.get();
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof AttestationHubException) {
+		throw (AttestationHubException) e.getCause();
+	    }
+	    throw new AttestationHubException(e.getCause());
+	}
+    }
+
+    private List<PublishData> splitIntoChunks(PublishData data, int maxBatchSize) {
+	List<HostDetails> hosts = data.hostDetailsList;
+	if (maxBatchSize <= 0 || hosts.size() <= maxBatchSize) {
+	    return Collections.singletonList(data);
 	}
+	int chunkCount = (hosts.size() + maxBatchSize - 1) / maxBatchSize;
+	List<PublishData> chunks = new ArrayList<>(chunkCount);
+	for (int i = 0; i < chunkCount; i++) {
+	    PublishData chunk = new PublishData();
+	    chunk.tenantId = data.tenantId;
+	    chunk.version = PublishData.VERSION_DELTA;
+	    chunk.type = data.type == null ? PublishData.TYPE_SNAPSHOT : data.type;
+	    chunk.hostDetailsList = hosts.subList(i * maxBatchSize, Math.min((i + 1) * maxBatchSize, hosts.size()));
+	    chunk.removedHostIds = i == 0 ? data.removedHostIds : null;
+	    chunk.chunkIndex = i;
+	    chunk.chunkCount = chunkCount;
+	    chunks.add(chunk);
+	}
+	return chunks;
+    }
+
+    private String createSignedTrustReport(String trustReportWithAdditions, Key privateKey) {
 	if (privateKey == null) {
 	    log.error("No privateKey for creating signed report");
 	    return null;
@@ -249,11 +602,36 @@ public class PluginManager {
 	} catch (JoseException e) {
 	    log.error("Error signing the trust report", e);
 	}
-	log.info("JWS format of trust report: {}", jwsCompactSerialization);
+	log.debug("JWS format of trust report: {}", jwsCompactSerialization);
 	return jwsCompactSerialization;
     }
 
-    private Key loadPrivateKey() throws AttestationHubException {
+    /**
+     * The key is read from the file once and read again only when the file is
+     * modified
+     */
+    private Key getPrivateKey() throws AttestationHubException {
+	synchronized (signingLock) {
+	    File prikeyFile = new File(PRIVATE_KEY_PATH);
+	    if (!(prikeyFile.exists())) {
+		privateKey = null;
+		throw new AttestationHubException("Private key unavailable for signinig the report");
+	    }
+	    long lastModified = prikeyFile.lastModified();
+	    long length = prikeyFile.length();
+	    if (privateKey == null || lastModified != privateKeyLastModified || length != privateKeyLength) {
+		log.info("Loading the private key for signing the reports from {}", prikeyFile.getAbsolutePath());
+		privateKey = loadPrivateKey();
+		// the cached reports were signed with the previous key
+		reportCache.clear();
+		privateKeyLastModified = lastModified;
+		privateKeyLength = length;
+	    }
+	    return privateKey;
+	}
+    }
+
+    private PrivateKey loadPrivateKey() throws AttestationHubException {
 	File prikeyFile = new File(PRIVATE_KEY_PATH);
 	if (!(prikeyFile.exists())) {
 	    throw new AttestationHubException("Private key unavailable for signinig the report");
@@ -302,4 +680,36 @@ public class PluginManager {
 	return generatePrivate;
     }
 
+    /**
+     * Details of a host published to every tenant the host is mapped to, with
+     * the task signing its trust report, which runs once
+     */
+    private static class HostReport {
+	private final HostDetails details;
+	private final String contentKey;
+	private final FutureTask<Void> signing;
+
+	private HostReport(HostDetails details, String contentKey, FutureTask<Void> signing) {
+	    this.details = details;
+	    this.contentKey = contentKey;
+	    this.signing = signing;
+	}
+    }
+
+    /**
+     * Data of a tenant passed between the publish stages
+     */
+    private static class TenantReport {
+	private final AhTenant ahTenant;
+	private final List<Plugin> plugins;
+	private final List<HostDetails> hostsData = new ArrayList<HostDetails>();
+	private final List<HostReport> reportsToSign = new ArrayList<HostReport>();
+	private final Map<String, String> contentKeys = new HashMap<String, String>();
+
+	private TenantReport(AhTenant ahTenant, List<Plugin> plugins) {
+	    this.ahTenant = ahTenant;
+	    this.plugins = plugins;
+	}
+    }
+
 }
@@ -0,0 +1,275 @@
+package com.intel.attestationhub.manager;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+
+/**
+ * Runs the pushes to the plugins of all the tenants concurrently, on a pool of
+ * attestation-hub.push.threads threads. At most
+ * attestation-hub.push.max.concurrent pushes of the same plugin type run at
+ * once, which can be set per type with
+ * attestation-hub.push.max.concurrent.&lt;plugin name&gt;. A push running for
+ * longer than attestation-hub.push.timeout seconds is cancelled, which
+ * interrupts the thread running it.
+ *
+ * A cancelled push blocked in I/O may go on until the I/O times out. Until it
+ * is over, no other push to the same plugin of the same tenant is started,
+ * and it is reported as failed whatever its outcome.
+ *
+ * Each plugin type has its own queue, and a push is handed to the pool only
+ * once fewer than the limit of pushes of its type are running. A push
+ * waiting for its type holds no thread of the pool, so a backlog of pushes
+ * to a slow plugin type does not hold up the other types.
+ */
+class PluginPushExecutor {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PluginPushExecutor.class);
+    private static final int DEFAULT_PUSH_THREADS = 16;
+    private static final int DEFAULT_MAX_CONCURRENT_PUSHES = 4;
+    private static final int DEFAULT_PUSH_TIMEOUT_SECONDS = 120;
+
+    private final ExecutorService pool;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentMap<String, TypeQueue> typeQueues = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * A push to a plugin, with the callbacks run once it is over
+     */
+    interface PluginPush {
+	void push() throws Exception;
+
+	/**
+	 * Called if the push completed and was not cancelled
+	 */
+	void pushed();
+
+	/**
+	 * Called if the push failed or was cancelled
+	 */
+	void failed(Exception e);
+    }
+
+    PluginPushExecutor() {
+	int threads = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUSH_THREADS,
+		DEFAULT_PUSH_THREADS);
+	pool = Executors.newFixedThreadPool(threads > 0 ? threads : DEFAULT_PUSH_THREADS,
+		newThreadFactory("attestation-hub-push-"));
+	timer = Executors.newSingleThreadScheduledExecutor(newThreadFactory("attestation-hub-push-timeout-"));
+    }
+
+    /**
+     * @return true if a push with the given key is queued or still running,
+     *         even if it was cancelled
+     */
+    boolean isInFlight(String key) {
+	return inFlight.contains(key);
+    }
+
+    /**
+     * Queues the push, which runs once fewer than the limit of pushes of its
+     * plugin type are running and a thread is free
+     *
+     * @param key
+     *            identifies the tenant and plugin pushed to. The push is not
+     *            queued while another push with the same key is in flight.
+     * @param pluginType
+     *            name of the plugin, which the concurrency limit applies to
+     * @param description
+     *            used in the log if the push times out
+     * @return the queued push, or null if a push with the same key is in
+     *         flight
+     */
+    Future<Void> submit(final String key, final String pluginType, final String description,
+	    final PluginPush push) {
+	if (!inFlight.add(key)) {
+	    log.info("{} skipped, as the previous one is still in progress", description);
+	    return null;
+	}
+	final TypeQueue typeQueue = getTypeQueue(pluginType);
+	final AtomicReference<Future<Void>> self = new AtomicReference<>();
+	// set by whichever of the run and the cancellation of a push not yet
+	// started comes first, which then clears the push from the in flight
+	// ones and from its type
+	final AtomicBoolean claimed = new AtomicBoolean(false);
+	final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+	    @Override
+	    public Void call() throws Exception {
+		if (!claimed.compareAndSet(false, true)) {
+		    return null;
+		}
+		try {
+		    runPush(description, push, self.get());
+		} finally {
+		    inFlight.remove(key);
+		    typeQueue.release();
+		}
+		return null;
+	    }
+	}) {
+	    @Override
+	    protected void done() {
+		if (claimed.compareAndSet(false, true)) {
+		    inFlight.remove(key);
+		    typeQueue.cancelled(this);
+		}
+	    }
+	};
+	self.set(task);
+	typeQueue.submit(task);
+	return task;
+    }
+
+    private void runPush(final String description, PluginPush push, final Future<Void> self) {
+	final int timeout = getTimeout();
+	ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		log.error("{} did not complete in {} seconds. Cancelling it", description, timeout);
+		self.cancel(true);
+	    }
+	}, timeout, TimeUnit.SECONDS);
+	Exception failure = null;
+	try {
+	    push.push();
+	} catch (Exception e) {
+	    failure = e;
+	} finally {
+	    timeoutTask.cancel(false);
+	}
+	if (failure == null && self.isCancelled()) {
+	    failure = new CancellationException(description + " was cancelled");
+	}
+	if (failure == null) {
+	    push.pushed();
+	} else {
+	    push.failed(failure);
+	}
+    }
+
+    /**
+     * Waits for the given pushes to complete or be cancelled
+     */
+    void awaitAll(Collection<Future<Void>> pushes) throws InterruptedException {
+	int cancelled = 0;
+	for (Future<Void> push : pushes) {
+	    try {
+		push.get();
+	    } catch (CancellationException e) {
+		cancelled++;
+	    } catch (ExecutionException e) {
+		log.error("Error pushing data to plugin", e.getCause());
+	    }
+	}
+	if (cancelled > 0) {
+	    log.error("{} of {} pushes to the plugins were cancelled", cancelled, pushes.size());
+	}
+    }
+
+    private TypeQueue getTypeQueue(String pluginType) {
+	TypeQueue typeQueue = typeQueues.get(pluginType);
+	if (typeQueue == null) {
+	    int maxConcurrent = AttestationHubConfigUtil.getInteger(
+		    Constants.ATTESTATION_HUB_PUSH_MAX_CONCURRENT + "." + pluginType,
+		    AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUSH_MAX_CONCURRENT,
+			    DEFAULT_MAX_CONCURRENT_PUSHES));
+	    TypeQueue newTypeQueue = new TypeQueue(maxConcurrent > 0 ? maxConcurrent : DEFAULT_MAX_CONCURRENT_PUSHES);
+	    typeQueue = typeQueues.putIfAbsent(pluginType, newTypeQueue);
+	    if (typeQueue == null) {
+		typeQueue = newTypeQueue;
+	    }
+	}
+	return typeQueue;
+    }
+
+    private int getTimeout() {
+	int timeout = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUSH_TIMEOUT,
+		DEFAULT_PUSH_TIMEOUT_SECONDS);
+	return timeout > 0 ? timeout : DEFAULT_PUSH_TIMEOUT_SECONDS;
+    }
+
+    /**
+     * The pushes of a plugin type waiting for one of the running pushes of
+     * the type to be over
+     */
+    private class TypeQueue {
+	private final int limit;
+	private final Queue<FutureTask<Void>> waiting = new ArrayDeque<>();
+	private int running = 0;
+
+	private TypeQueue(int limit) {
+	    this.limit = limit;
+	}
+
+	private synchronized void submit(FutureTask<Void> task) {
+	    if (running < limit) {
+		running++;
+		pool.execute(task);
+	    } else {
+		waiting.add(task);
+	    }
+	}
+
+	/**
+	 * Called once a running push is over, to start the next one waiting
+	 */
+	private synchronized void release() {
+	    running--;
+	    while (running < limit) {
+		FutureTask<Void> task = waiting.poll();
+		if (task == null) {
+		    return;
+		}
+		if (task.isDone()) {
+		    continue;
+		}
+		running++;
+		pool.execute(task);
+	    }
+	}
+
+	/**
+	 * Called for a push cancelled before it started. A push still waiting
+	 * is dropped from the queue; a push already handed to the pool counted
+	 * as running.
+	 */
+	private synchronized void cancelled(FutureTask<Void> task) {
+	    if (!waiting.remove(task)) {
+		release();
+	    }
+	}
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+	final AtomicInteger threadNumber = new AtomicInteger(1);
+	return new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	    }
+	};
+    }
+}
@@ -0,0 +1,161 @@
+package com.intel.attestationhub.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.intel.attestationhub.api.HostDetails;
+import com.intel.attestationhub.api.PublishData;
+import com.intel.attestationhub.api.Tenant.Plugin;
+import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
+import com.intel.mtwilson.attestationhub.common.Constants;
+
+/**
+ * Keeps the content key of each host last pushed to each plugin of each
+ * tenant, for the plugins publishing deltas. The first push to a plugin is a
+ * snapshot, and so is the push after a failed one. The later pushes carry
+ * only the hosts which changed, and are skipped if nothing changed. With
+ * attestation-hub.publish.snapshot.interval set to N, every Nth push is a
+ * snapshot again. A tenant left without hosts is pushed only to the delta
+ * plugins which were sent hosts, with all of them removed.
+ *
+ * The keys are kept in memory, so the first push after a restart is a
+ * snapshot.
+ */
+class PublishedHostsTracker {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PublishedHostsTracker.class);
+
+    private final Map<String, PublishedHosts> publishedHosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param contentKeys
+     *            key of the content of each host of the tenant, by host id. A
+     *            host with a null key is pushed as changed.
+     * @return data to push to the plugin, or null if there is nothing to push
+     */
+    PublishData getPublishData(String tenantId, Plugin plugin, List<HostDetails> hostsData,
+	    Map<String, String> contentKeys) {
+	PublishedHosts published = plugin.isDeltaPublishing() ? publishedHosts.get(getKey(tenantId, plugin)) : null;
+	if (hostsData.isEmpty() && published == null) {
+	    log.debug("No hosts of tenant {} to push to plugin {}", tenantId, plugin.getName());
+	    return null;
+	}
+	PublishData data = new PublishData();
+	data.tenantId = tenantId;
+	data.hostDetailsList = hostsData;
+	if (!plugin.isDeltaPublishing()) {
+	    return data;
+	}
+	data.version = PublishData.VERSION_DELTA;
+	if (published == null || isSnapshotDue(published)) {
+	    data.type = PublishData.TYPE_SNAPSHOT;
+	    return data;
+	}
+
+	data.type = PublishData.TYPE_DELTA;
+	data.hostDetailsList = new ArrayList<>();
+	for (HostDetails details : hostsData) {
+	    String contentKey = contentKeys.get(details.uuid);
+	    if (contentKey == null || !contentKey.equals(published.contentKeys.get(details.uuid))) {
+		data.hostDetailsList.add(details);
+	    }
+	}
+	Set<String> removedHostIds = new HashSet<>(published.contentKeys.keySet());
+	removedHostIds.removeAll(contentKeys.keySet());
+	data.removedHostIds = new ArrayList<>(removedHostIds);
+	if (data.hostDetailsList.isEmpty() && data.removedHostIds.isEmpty()) {
+	    log.debug("No hosts of tenant {} changed since the last push to plugin {}", tenantId, plugin.getName());
+	    return null;
+	}
+	log.info("Pushing {} changed and {} removed hosts of tenant {} to plugin {}", data.hostDetailsList.size(),
+		data.removedHostIds.size(), tenantId, plugin.getName());
+	return data;
+    }
+
+    /**
+     * Records the hosts of a successful push, which the next delta is
+     * computed against
+     */
+    void pushed(String tenantId, Plugin plugin, PublishData data, Map<String, String> contentKeys) {
+	if (data.version == null) {
+	    return;
+	}
+	String key = getKey(tenantId, plugin);
+	if (contentKeys.isEmpty()) {
+	    // the plugin has no hosts of the tenant left to remove
+	    publishedHosts.remove(key);
+	    return;
+	}
+	PublishedHosts published = publishedHosts.get(key);
+	int deltas = PublishData.TYPE_SNAPSHOT.equals(data.type) || published == null ? 0 : published.deltas + 1;
+	publishedHosts.put(key, new PublishedHosts(tenantId, new HashMap<>(contentKeys), deltas));
+    }
+
+    /**
+     * The plugin may have received part of the push, so the next push to it
+     * is a snapshot
+     */
+    void failed(String tenantId, Plugin plugin) {
+	publishedHosts.remove(getKey(tenantId, plugin));
+    }
+
+    /**
+     * @return true if hosts of the tenant were pushed to any of its delta
+     *         plugins and not failed since
+     */
+    boolean hasPublished(String tenantId) {
+	for (PublishedHosts published : publishedHosts.values()) {
+	    if (published.tenantId.equals(tenantId)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Forgets the pushes to the tenants which are no longer active
+     */
+    void retainTenants(Collection<String> tenantIds) {
+	Iterator<Map.Entry<String, PublishedHosts>> iterator = publishedHosts.entrySet().iterator();
+	while (iterator.hasNext()) {
+	    if (!tenantIds.contains(iterator.next().getValue().tenantId)) {
+		iterator.remove();
+	    }
+	}
+    }
+
+    private boolean isSnapshotDue(PublishedHosts published) {
+	int interval = getSnapshotInterval();
+	return interval > 0 && published.deltas + 1 >= interval;
+    }
+
+    /**
+     * @return number of pushes after which a snapshot is pushed instead of a
+     *         delta, or 0 for none
+     */
+    int getSnapshotInterval() {
+	return AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_PUBLISH_SNAPSHOT_INTERVAL, 0);
+    }
+
+    private static String getKey(String tenantId, Plugin plugin) {
+	return tenantId + "/" + plugin.getName();
+    }
+
+    private static class PublishedHosts {
+	private final String tenantId;
+	private final Map<String, String> contentKeys;
+	private final int deltas;
+
+	private PublishedHosts(String tenantId, Map<String, String> contentKeys, int deltas) {
+	    this.tenantId = tenantId;
+	    this.contentKeys = contentKeys;
+	    this.deltas = deltas;
+	}
+    }
+}
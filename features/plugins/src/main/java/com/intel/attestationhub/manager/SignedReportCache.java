@@ -0,0 +1,66 @@
+package com.intel.attestationhub.manager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Trust reports and their signatures from earlier publish cycles, so that a
+ * host which has not changed is published without building and signing its
+ * report again. The key identifies the content of the host, so a changed
+ * host misses the cache. The least recently used reports are evicted once
+ * the cache holds more than the given number of reports.
+ */
+class SignedReportCache {
+    private final int maxSize;
+    private final Map<String, SignedReport> reports;
+    private long hits = 0;
+    private long misses = 0;
+
+    SignedReportCache(final int maxSize) {
+	this.maxSize = maxSize;
+	this.reports = new LinkedHashMap<String, SignedReport>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<String, SignedReport> eldest) {
+		return size() > SignedReportCache.this.maxSize;
+	    }
+	};
+    }
+
+    synchronized SignedReport get(String key) {
+	SignedReport report = reports.get(key);
+	if (report == null) {
+	    misses++;
+	} else {
+	    hits++;
+	}
+	return report;
+    }
+
+    synchronized void put(String key, String trustReport, String signedTrustReport) {
+	reports.put(key, new SignedReport(trustReport, signedTrustReport));
+    }
+
+    /**
+     * Drops all the reports, when they are no longer signed with the current
+     * key
+     */
+    synchronized void clear() {
+	reports.clear();
+    }
+
+    synchronized String getStats() {
+	return String.format("%d reports cached, %d hits, %d misses", reports.size(), hits, misses);
+    }
+
+    static class SignedReport {
+	final String trustReport;
+	final String signedTrustReport;
+
+	private SignedReport(String trustReport, String signedTrustReport) {
+	    this.trustReport = trustReport;
+	    this.signedTrustReport = signedTrustReport;
+	}
+    }
+}
@@ -0,0 +1,254 @@
+package com.intel.attestationhub.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of a pipeline. Items are put in a bounded queue and taken by the
+ * workers of the stage, which pass what they produce on to the next stage. A
+ * full queue blocks the stage feeding it, so a slow stage holds back the ones
+ * before it instead of piling up items in memory.
+ *
+ * Stages are chained with {@link #connect(PipelineStage)}. Starting or
+ * finishing the first stage starts or finishes the stages after it. Finishing
+ * waits for the items already queued to go through.
+ *
+ * The queue depth, the highest queue depth, and the processed and failed item
+ * counts of each stage are logged periodically while the pipeline runs and
+ * once it is finished, to tell which stage is the bottleneck.
+ *
+ * @param <I>
+ *            type of the items taken by the stage
+ * @param <O>
+ *            type of the items passed on to the next stage
+ */
+public class PipelineStage<I, O> {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PipelineStage.class);
+    private static final Object END = new Object();
+    private static final int METRICS_INTERVAL_SECONDS = 10;
+
+    private final String name;
+    private final int workerCount;
+    private final int batchSize;
+    private final StageProcessor<I, O> processor;
+    private final BlockingQueue<Object> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private PipelineStage<O, ?> next;
+    private boolean first = true;
+    private ScheduledExecutorService metricsLogger;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param name
+     *            used in the thread names and the metrics
+     * @param capacity
+     *            size of the queue of the stage
+     * @param workerCount
+     *            number of threads taking items from the queue
+     * @param batchSize
+     *            maximum number of items handed to the processor at once
+     * @param processor
+     */
+    public PipelineStage(String name, int capacity, int workerCount, int batchSize, StageProcessor<I, O> processor) {
+	this.name = name;
+	this.workerCount = Math.max(1, workerCount);
+	this.batchSize = Math.max(1, batchSize);
+	this.processor = processor;
+	this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Passes the output of this stage to the given stage
+     *
+     * @return the given stage, for chaining
+     */
+    public <N> PipelineStage<O, N> connect(PipelineStage<O, N> nextStage) {
+	this.next = nextStage;
+	nextStage.first = false;
+	return nextStage;
+    }
+
+    public synchronized void start() {
+	if (!workers.isEmpty()) {
+	    return;
+	}
+	for (int i = 0; i < workerCount; i++) {
+	    Thread worker = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    work();
+		}
+	    }, "attestation-hub-" + name + "-" + (i + 1));
+	    worker.setDaemon(true);
+	    workers.add(worker);
+	    worker.start();
+	}
+	if (next != null) {
+	    next.start();
+	}
+	if (first) {
+	    metricsLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+		    Thread thread = new Thread(runnable, "attestation-hub-" + name + "-metrics");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	    metricsLogger.scheduleAtFixedRate(new Runnable() {
+		@Override
+		public void run() {
+		    logMetrics();
+		}
+	    }, METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+    }
+
+    /**
+     * Queues an item for the stage, waiting while the queue is full
+     */
+    public void put(I item) throws InterruptedException {
+	queue.put(item);
+	int depth = queue.size();
+	int max = maxQueueDepth.get();
+	while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+	    max = maxQueueDepth.get();
+	}
+    }
+
+    /**
+     * Waits for the queued items to be processed by this stage and the stages
+     * after it, then stops the workers
+     */
+    public synchronized void finish() throws InterruptedException {
+	try {
+	    for (int i = 0; i < workers.size(); i++) {
+		queue.put(END);
+	    }
+	    for (Thread worker : workers) {
+		worker.join();
+	    }
+	    workers.clear();
+	    if (next != null) {
+		next.finish();
+	    }
+	} finally {
+	    if (metricsLogger != null) {
+		metricsLogger.shutdownNow();
+		metricsLogger = null;
+		logMetrics();
+	    }
+	}
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public int getQueueDepth() {
+	return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+	return maxQueueDepth.get();
+    }
+
+    public long getProcessed() {
+	return processed.get();
+    }
+
+    /**
+     * @return number of items failed in this stage only
+     */
+    public long getStageFailed() {
+	return failed.get();
+    }
+
+    /**
+     * @return number of items failed in this stage and the stages after it
+     */
+    public long getFailed() {
+	long failedItems = failed.get();
+	if (next != null) {
+	    failedItems += next.getFailed();
+	}
+	return failedItems;
+    }
+
+    /**
+     * Logs the metrics of this stage and the stages after it
+     */
+    public void logMetrics() {
+	log.info("Pipeline stage {}: queue depth {}, max queue depth {}, processed {}, failed {}", name,
+		getQueueDepth(), getMaxQueueDepth(), getProcessed(), failed.get());
+	if (next != null) {
+	    next.logMetrics();
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+	boolean done = false;
+	while (!done) {
+	    List<I> batch = new ArrayList<>(batchSize);
+	    try {
+		Object item = queue.take();
+		if (item == END) {
+		    return;
+		}
+		batch.add((I) item);
+		while (batch.size() < batchSize) {
+		    item = queue.poll();
+		    if (item == null) {
+			break;
+		    }
+		    if (item == END) {
+			done = true;
+			break;
+		    }
+		    batch.add((I) item);
+		}
+	    } catch (InterruptedException e) {
+		log.error("Worker of pipeline stage {} interrupted", name, e);
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	    process(batch);
+	}
+    }
+
+    private void process(List<I> batch) {
+	List<O> output;
+	try {
+	    output = processor.process(batch);
+	    processed.addAndGet(batch.size());
+	} catch (Exception e) {
+	    log.error("Error processing {} items in pipeline stage {}", batch.size(), name, e);
+	    failed.addAndGet(batch.size());
+	    return;
+	}
+	if (output == null || next == null) {
+	    return;
+	}
+	for (O item : output) {
+	    try {
+		next.put(item);
+	    } catch (InterruptedException e) {
+		log.error("Worker of pipeline stage {} interrupted", name, e);
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	}
+    }
+}
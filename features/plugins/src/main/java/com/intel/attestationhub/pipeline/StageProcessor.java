@@ -0,0 +1,22 @@
+package com.intel.attestationhub.pipeline;
+
+import java.util.List;
+
+/**
+ * Work done by the workers of a {@link PipelineStage}
+ *
+ * @param <I>
+ *            type of the items taken from the queue of the stage
+ * @param <O>
+ *            type of the items passed on to the next stage
+ */
+public interface StageProcessor<I, O> {
+    /**
+     * @param items
+     *            up to the batch size of the stage, at least one
+     * @return items for the next stage, or null if there are none
+     * @throws Exception
+     *             the items are counted as failed and dropped
+     */
+    public List<O> process(List<I> items) throws Exception;
+}
@@ -27,4 +27,27 @@ public class EndpointPluginFactory {
 	EndpointPlugin endpointPlugin = Plugins.findByAttribute(EndpointPlugin.class, "class.name", providerClass);
 	return endpointPlugin;
     }
+
+    /**
+     * @return the plugin, wrapped in an {@link EndpointPluginAdapter} if it
+     *         implements only {@link EndpointPlugin}
+     */
+    public static AsyncEndpointPlugin getAsyncPluginImpl(Plugin plugin) {
+	String providerClass = plugin.extractProviderClass();
+	if (StringUtils.isBlank(providerClass)) {
+	    log.error("No provider configured for plugin");
+	    return null;
+	}
+
+	AsyncEndpointPlugin asyncEndpointPlugin = Plugins.findByAttribute(AsyncEndpointPlugin.class, "class.name",
+		providerClass);
+	if (asyncEndpointPlugin != null) {
+	    return asyncEndpointPlugin;
+	}
+	EndpointPlugin endpointPlugin = Plugins.findByAttribute(EndpointPlugin.class, "class.name", providerClass);
+	if (endpointPlugin == null) {
+	    return null;
+	}
+	return new EndpointPluginAdapter(endpointPlugin);
+    }
 }
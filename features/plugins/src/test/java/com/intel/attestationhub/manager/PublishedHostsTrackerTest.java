@@ -0,0 +1,179 @@
+package com.intel.attestationhub.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intel.attestationhub.api.HostDetails;
+import com.intel.attestationhub.api.PublishData;
+import com.intel.attestationhub.api.Tenant.Plugin;
+
+public class PublishedHostsTrackerTest {
+    private static final String TENANT_ID = "tenant";
+
+    private int snapshotInterval;
+    private PublishedHostsTracker tracker;
+    private Plugin plugin;
+
+    @Before
+    public void setUp() {
+	snapshotInterval = 0;
+	tracker = new PublishedHostsTracker() {
+	    @Override
+	    int getSnapshotInterval() {
+		return snapshotInterval;
+	    }
+	};
+	plugin = new Plugin();
+	plugin.setName("kubernetes");
+	plugin.addProperty(Plugin.PUBLISH_MODE, Plugin.PUBLISH_MODE_DELTA);
+    }
+
+    @Test
+    public void pluginWithoutDeltasGetsAllHosts() {
+	Plugin fullPlugin = new Plugin();
+	fullPlugin.setName("nova");
+	Map<String, String> contentKeys = contentKeys("a", "1", "b", "1");
+	PublishData data = push(fullPlugin, contentKeys);
+	assertNull(data.version);
+	assertEquals(2, data.hostDetailsList.size());
+
+	data = push(fullPlugin, contentKeys);
+	assertNull(data.version);
+	assertEquals(2, data.hostDetailsList.size());
+    }
+
+    @Test
+    public void deltaCarriesChangedAndRemovedHosts() {
+	PublishData data = push(plugin, contentKeys("a", "1", "b", "1", "c", "1"));
+	assertEquals(PublishData.TYPE_SNAPSHOT, data.type);
+	assertEquals(3, data.hostDetailsList.size());
+
+	data = push(plugin, contentKeys("a", "1", "b", "2", "d", "1"));
+	assertEquals(PublishData.TYPE_DELTA, data.type);
+	assertEquals(Arrays.asList("b", "d"), uuids(data));
+	assertEquals(Collections.singletonList("c"), data.removedHostIds);
+
+	assertNull(tracker.getPublishData(TENANT_ID, plugin, hosts(contentKeys("a", "1", "b", "2", "d", "1")),
+		contentKeys("a", "1", "b", "2", "d", "1")));
+    }
+
+    @Test
+    public void hostWithoutContentKeyIsAlwaysPushed() {
+	Map<String, String> contentKeys = contentKeys("a", "1", "b", null);
+	push(plugin, contentKeys);
+	PublishData data = push(plugin, contentKeys);
+	assertEquals(PublishData.TYPE_DELTA, data.type);
+	assertEquals(Collections.singletonList("b"), uuids(data));
+    }
+
+    @Test
+    public void snapshotIsPushedAtTheInterval() {
+	snapshotInterval = 3;
+	List<String> types = new ArrayList<>();
+	for (int i = 0; i < 7; i++) {
+	    types.add(push(plugin, contentKeys("a", String.valueOf(i))).type);
+	}
+	assertEquals(Arrays.asList(PublishData.TYPE_SNAPSHOT, PublishData.TYPE_DELTA, PublishData.TYPE_DELTA,
+		PublishData.TYPE_SNAPSHOT, PublishData.TYPE_DELTA, PublishData.TYPE_DELTA, PublishData.TYPE_SNAPSHOT),
+		types);
+    }
+
+    @Test
+    public void failedPushResetsToSnapshot() {
+	Map<String, String> contentKeys = contentKeys("a", "1", "b", "1");
+	push(plugin, contentKeys);
+	Map<String, String> changedKeys = contentKeys("a", "2", "b", "1");
+	PublishData data = tracker.getPublishData(TENANT_ID, plugin, hosts(changedKeys), changedKeys);
+	assertEquals(PublishData.TYPE_DELTA, data.type);
+	tracker.failed(TENANT_ID, plugin);
+
+	data = push(plugin, changedKeys);
+	assertEquals(PublishData.TYPE_SNAPSHOT, data.type);
+	assertEquals(2, data.hostDetailsList.size());
+    }
+
+    @Test
+    public void removedTenantsAreForgotten() {
+	Map<String, String> contentKeys = contentKeys("a", "1");
+	push(plugin, contentKeys);
+	tracker.retainTenants(Collections.singletonList("other"));
+	assertEquals(PublishData.TYPE_SNAPSHOT, push(plugin, contentKeys).type);
+
+	tracker.retainTenants(Collections.singletonList(TENANT_ID));
+	assertNull(tracker.getPublishData(TENANT_ID, plugin, hosts(contentKeys), contentKeys));
+    }
+
+    @Test
+    public void lastHostRemovedPushesRemovals() {
+	push(plugin, contentKeys("a", "1", "b", "1"));
+	assertTrue(tracker.hasPublished(TENANT_ID));
+
+	PublishData data = push(plugin, contentKeys());
+	assertEquals(PublishData.TYPE_DELTA, data.type);
+	assertTrue(data.hostDetailsList.isEmpty());
+	Collections.sort(data.removedHostIds);
+	assertEquals(Arrays.asList("a", "b"), data.removedHostIds);
+
+	// nothing is left to remove, so the tenant is no longer pushed
+	assertFalse(tracker.hasPublished(TENANT_ID));
+	assertNull(tracker.getPublishData(TENANT_ID, plugin, hosts(contentKeys()), contentKeys()));
+    }
+
+    @Test
+    public void tenantWithoutHostsIsNotPushedToPluginWithoutDeltas() {
+	Plugin fullPlugin = new Plugin();
+	fullPlugin.setName("nova");
+	push(fullPlugin, contentKeys("a", "1"));
+	assertFalse(tracker.hasPublished(TENANT_ID));
+	assertNull(tracker.getPublishData(TENANT_ID, fullPlugin, hosts(contentKeys()), contentKeys()));
+    }
+
+    /**
+     * Gets the data to push and records it as pushed
+     */
+    private PublishData push(Plugin toPlugin, Map<String, String> contentKeys) {
+	PublishData data = tracker.getPublishData(TENANT_ID, toPlugin, hosts(contentKeys), contentKeys);
+	tracker.pushed(TENANT_ID, toPlugin, data, contentKeys);
+	return data;
+    }
+
+    private static Map<String, String> contentKeys(String... uuidsAndKeys) {
+	Map<String, String> contentKeys = new HashMap<>();
+	for (int i = 0; i < uuidsAndKeys.length; i += 2) {
+	    contentKeys.put(uuidsAndKeys[i], uuidsAndKeys[i + 1]);
+	}
+	return contentKeys;
+    }
+
+    private static List<HostDetails> hosts(Map<String, String> contentKeys) {
+	List<String> uuids = new ArrayList<>(contentKeys.keySet());
+	Collections.sort(uuids);
+	List<HostDetails> hosts = new ArrayList<>();
+	for (String uuid : uuids) {
+	    HostDetails details = new HostDetails();
+	    details.uuid = uuid;
+	    hosts.add(details);
+	}
+	return hosts;
+    }
+
+    private static List<String> uuids(PublishData data) {
+	List<String> uuids = new ArrayList<>();
+	for (HostDetails details : data.hostDetailsList) {
+	    uuids.add(details.uuid);
+	}
+	return uuids;
+    }
+}
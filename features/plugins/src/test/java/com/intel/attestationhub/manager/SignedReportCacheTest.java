@@ -0,0 +1,52 @@
+package com.intel.attestationhub.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SignedReportCacheTest {
+
+    @Test
+    public void leastRecentlyUsedReportIsEvicted() {
+	SignedReportCache cache = new SignedReportCache(2);
+	cache.put("a", "report a", "signed a");
+	cache.put("b", "report b", "signed b");
+	// a is now used more recently than b
+	assertNotNull(cache.get("a"));
+	cache.put("c", "report c", "signed c");
+
+	assertNull(cache.get("b"));
+	assertNotNull(cache.get("a"));
+	assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void reportIsReturnedAsPut() {
+	SignedReportCache cache = new SignedReportCache(10);
+	cache.put("a", "report a", "signed a");
+	SignedReportCache.SignedReport report = cache.get("a");
+	assertEquals("report a", report.trustReport);
+	assertEquals("signed a", report.signedTrustReport);
+	assertEquals("1 reports cached, 1 hits, 0 misses", cache.getStats());
+    }
+
+    @Test
+    public void clearDropsAllReports() {
+	SignedReportCache cache = new SignedReportCache(10);
+	cache.put("a", "report a", "signed a");
+	cache.put("b", "report b", "signed b");
+	cache.clear();
+	assertNull(cache.get("a"));
+	assertNull(cache.get("b"));
+	assertEquals("0 reports cached, 0 hits, 2 misses", cache.getStats());
+    }
+
+    @Test
+    public void zeroSizeCachesNothing() {
+	SignedReportCache cache = new SignedReportCache(0);
+	cache.put("a", "report a", "signed a");
+	assertNull(cache.get("a"));
+    }
+}
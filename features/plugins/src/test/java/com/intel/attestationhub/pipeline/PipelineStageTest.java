@@ -0,0 +1,131 @@
+package com.intel.attestationhub.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PipelineStageTest {
+
+    @Test(timeout = 10000)
+    public void finishWaitsForAllItemsWithSeveralWorkers() throws Exception {
+	final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+	PipelineStage<Integer, Integer> first = new PipelineStage<>("first", 10, 4, 3,
+		new StageProcessor<Integer, Integer>() {
+		    @Override
+		    public List<Integer> process(List<Integer> items) throws Exception {
+			return items;
+		    }
+		});
+	PipelineStage<Integer, Void> last = new PipelineStage<>("last", 10, 2, 5,
+		new StageProcessor<Integer, Void>() {
+		    @Override
+		    public List<Void> process(List<Integer> items) throws Exception {
+			received.addAll(items);
+			return null;
+		    }
+		});
+	first.connect(last);
+	first.start();
+	for (int i = 0; i < 100; i++) {
+	    first.put(i);
+	}
+	first.finish();
+
+	assertEquals(100, received.size());
+	assertEquals(100, first.getProcessed());
+	assertEquals(100, last.getProcessed());
+	assertEquals(0, first.getFailed());
+    }
+
+    @Test(timeout = 10000)
+    public void failuresAreCountedPerStageAndCascaded() throws Exception {
+	PipelineStage<Integer, Integer> first = new PipelineStage<>("first", 10, 2, 1,
+		new StageProcessor<Integer, Integer>() {
+		    @Override
+		    public List<Integer> process(List<Integer> items) throws Exception {
+			if (items.get(0) % 5 == 0) {
+			    throw new Exception("failed in first");
+			}
+			return items;
+		    }
+		});
+	PipelineStage<Integer, Void> last = new PipelineStage<>("last", 10, 1, 1,
+		new StageProcessor<Integer, Void>() {
+		    @Override
+		    public List<Void> process(List<Integer> items) throws Exception {
+			if (items.get(0) % 2 == 0) {
+			    throw new Exception("failed in last");
+			}
+			return null;
+		    }
+		});
+	first.connect(last);
+	first.start();
+	for (int i = 1; i <= 20; i++) {
+	    first.put(i);
+	}
+	first.finish();
+
+	// 5, 10, 15 and 20 fail in the first stage, the 8 other even ones in
+	// the last
+	assertEquals(4, first.getStageFailed());
+	assertEquals(8, last.getStageFailed());
+	assertEquals(12, first.getFailed());
+	assertEquals(8, last.getFailed());
+	assertEquals(16, first.getProcessed());
+	assertEquals(8, last.getProcessed());
+    }
+
+    @Test(timeout = 10000)
+    public void fullQueueBlocksThePut() throws Exception {
+	final CountDownLatch processing = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+	final AtomicInteger processed = new AtomicInteger();
+	final PipelineStage<Integer, Void> stage = new PipelineStage<>("slow", 1, 1, 1,
+		new StageProcessor<Integer, Void>() {
+		    @Override
+		    public List<Void> process(List<Integer> items) throws Exception {
+			processing.countDown();
+			release.await();
+			processed.addAndGet(items.size());
+			return null;
+		    }
+		});
+	stage.start();
+	stage.put(1);
+	assertTrue(processing.await(5, TimeUnit.SECONDS));
+	// the worker holds the first item and the queue holds the second
+	stage.put(2);
+
+	final CountDownLatch thirdPut = new CountDownLatch(1);
+	Thread producer = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    stage.put(3);
+		    thirdPut.countDown();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	});
+	producer.start();
+	assertFalse(thirdPut.await(200, TimeUnit.MILLISECONDS));
+	assertEquals(1, stage.getMaxQueueDepth());
+
+	release.countDown();
+	assertTrue(thirdPut.await(5, TimeUnit.SECONDS));
+	producer.join();
+	stage.finish();
+	assertEquals(3, processed.get());
+    }
+}
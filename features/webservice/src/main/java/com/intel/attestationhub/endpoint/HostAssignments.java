@@ -16,6 +16,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -28,6 +30,7 @@ import com.intel.attestationhub.service.AttestationHubService;
 import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
 import com.intel.dcsg.cpg.validation.RegexPatterns;
 import com.intel.dcsg.cpg.validation.ValidationUtil;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
 import com.intel.mtwilson.attestationhub.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.attestationhub.data.AhMapping;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
@@ -42,6 +45,9 @@ import com.intel.mtwilson.launcher.ws.ext.V2;
 public class HostAssignments {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostAssignments.class);
 
+    @Context
+    private Providers providers;
+
     /**
      * Create the tenant to host mappings by passing the JSON Array that
      * contains the list of host id to be mapped to this tenant
@@ -279,20 +285,14 @@ public class HostAssignments {
      * @return the tenant to host mapping information
      */
     public Response retrieveAllMappings() {
-	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
-	List<AhMapping> ahMappings;
-	try {
-	    ahMappings = attestationHubService.retrieveAllMappings();
-	} catch (AttestationHubException e) {
-	    ErrorResponse errorResponse = new ErrorResponse(ErrorCode.REQUEST_PROCESSING_FAILED);
-	    errorResponse.errorMessage = e.getMessage();
-	    Status status = Response.Status.INTERNAL_SERVER_ERROR;
-	    if (e.getCause() instanceof NonexistentEntityException) {
-		status = Response.Status.NOT_FOUND;
+	final AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	StreamingOutput ahMappings = new JsonArrayStreamingOutput<AhMapping>(providers) {
+	    @Override
+	    protected void stream(EntityHandler<AhMapping> handler) throws AttestationHubException {
+		attestationHubService.streamMappings(handler);
 	    }
-	    return Response.status(status).entity(errorResponse).build();
-	}
-	return Response.ok(ahMappings).build();
+	};
+	return Response.ok(ahMappings, MediaType.APPLICATION_JSON).build();
     }
 
     /**
@@ -3,6 +3,7 @@
  */
 package com.intel.attestationhub.endpoint;
 
+import java.net.URI;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -14,7 +15,11 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -25,6 +30,7 @@ import com.intel.attestationhub.service.AttestationHubService;
 import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
 import com.intel.dcsg.cpg.validation.RegexPatterns;
 import com.intel.dcsg.cpg.validation.ValidationUtil;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
 import com.intel.mtwilson.attestationhub.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.attestationhub.data.AhHost;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
@@ -40,6 +46,9 @@ import com.intel.mtwilson.launcher.ws.ext.V2;
 public class Hosts {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Hosts.class);
 
+    @Context
+    private Providers providers;
+
     /**
      * Retrieve the host information by providing the host id in the URL
      * 
@@ -115,18 +124,14 @@ public class Hosts {
     }
 
     public Response getHosts() {
-	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
-	List<AhHost> hosts = null;
-	try {
-	    hosts = attestationHubService.getHosts();
-	} catch (AttestationHubException e) {
-	    log.error("Error in getting all hosts info");
-	    ErrorResponse errorResponse = new ErrorResponse(ErrorCode.REQUEST_PROCESSING_FAILED);
-	    errorResponse.detailErrors = e.getMessage();
-	    Status status = Response.Status.INTERNAL_SERVER_ERROR;
-	    return Response.status(status).entity(errorResponse).build();
-	}
-	return Response.ok(hosts).build();
+	final AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	StreamingOutput hosts = new JsonArrayStreamingOutput<AhHost>(providers) {
+	    @Override
+	    protected void stream(EntityHandler<AhHost> handler) throws AttestationHubException {
+		attestationHubService.streamHosts(handler);
+	    }
+	};
+	return Response.ok(hosts, MediaType.APPLICATION_JSON).build();
     }
 
     /**
@@ -158,6 +163,16 @@ public class Hosts {
      *   
      *   		https://{IP/HOST_NAME}/v1/hosts 
      *                  would return all the hosts in the hub
+     *
+     *   		https://{IP/HOST_NAME}/v1/hosts?limit=100&fields=host_name,hardware_uuid,trusted
+     *                  would return the first 100 hosts ordered by id, with only the
+     *                  requested attributes and the id. The Link header with rel="next"
+     *                  carries the URL of the next page, which passes the id of the
+     *                  last host of this page as after=:
+     *                  https://{IP/HOST_NAME}/v1/hosts?limit=100&fields=host_name,hardware_uuid,trusted&after=97a65f4e-62ed-479b-9e4e-efa143ac5d5e
+     *                  The limit defaults to 100 and cannot exceed 1000. Without
+     *                  aik_certificate, saml_report, trust_tags_json and asset_tags
+     *                  in the fields these columns are not read from the DB.
      *  
      *     When the host name is not provided:
      *     Output:
@@ -182,7 +197,7 @@ public class Hosts {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Response searchHosts(@BeanParam HostFilterCriteria hostFilterCriteria,
-	    @Context HttpServletRequest httpServletRequest) {
+	    @Context HttpServletRequest httpServletRequest, @Context UriInfo uriInfo) {
 	log.info("searching for hosts with name : {}", hostFilterCriteria.nameEqualTo);
 	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();	
 	if (StringUtils.isBlank(httpServletRequest.getQueryString())) {
@@ -198,6 +213,9 @@ public class Hosts {
 	    return Response.status(status).entity(errorResponse).build();
 
 	}
+	if (hostFilterCriteria.isListRequest()) {
+	    return getHostsPage(hostFilterCriteria, uriInfo);
+	}
 	List<AhHost> ahHosts = null;
 	try {
 	    ahHosts = attestationHubService.searchHostsWithSearchCriteria(hostFilterCriteria);
@@ -209,4 +227,30 @@ public class Hosts {
 	}
 	return Response.ok(ahHosts).build();
     }
+
+    /**
+     * Lists a page of the hosts, with a Link to the next page if the page is
+     * full
+     */
+    private Response getHostsPage(HostFilterCriteria hostFilterCriteria, UriInfo uriInfo) {
+	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	List<AhHost> hosts = null;
+	try {
+	    hosts = attestationHubService.getHostsPage(hostFilterCriteria);
+	} catch (AttestationHubException e) {
+	    log.error("Error in getting page of hosts info");
+	    ErrorResponse errorResponse = new ErrorResponse(ErrorCode.REQUEST_PROCESSING_FAILED);
+	    errorResponse.detailErrors = e.getMessage();
+	    Status status = Response.Status.INTERNAL_SERVER_ERROR;
+	    return Response.status(status).entity(errorResponse).build();
+	}
+	ResponseBuilder responseBuilder = Response.ok(hosts);
+	// A full page means there may be more hosts after the last one
+	if (hosts.size() == hostFilterCriteria.getPageSize()) {
+	    String lastId = hosts.get(hosts.size() - 1).getId();
+	    URI nextPage = uriInfo.getRequestUriBuilder().replaceQueryParam("after", lastId).build();
+	    responseBuilder.link(nextPage, "next");
+	}
+	return responseBuilder.build();
+    }
 }
@@ -0,0 +1,78 @@
+package com.intel.attestationhub.endpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
+import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+
+/**
+ * Writes a JSON array to the response as the elements are read from the DB,
+ * instead of building the complete list first. Subclasses feed the elements
+ * to the handler passed to {@link #stream(EntityHandler)}.
+ *
+ * Once the first element is written the response status is committed, so an
+ * error while streaming aborts the response.
+ */
+public abstract class JsonArrayStreamingOutput<T> implements StreamingOutput {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JsonArrayStreamingOutput.class);
+
+    private final ObjectMapper objectMapper;
+
+    public JsonArrayStreamingOutput(Providers providers) {
+	this.objectMapper = getObjectMapper(providers);
+    }
+
+    protected abstract void stream(EntityHandler<T> handler) throws AttestationHubException;
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+	final JsonGenerator generator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+	final ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	generator.writeStartArray();
+	try {
+	    stream(new EntityHandler<T>() {
+		@Override
+		public void handle(T entity) throws Exception {
+		    writer.writeValue(generator, entity);
+		}
+	    });
+	} catch (AttestationHubException e) {
+	    log.error("Error streaming the response", e);
+	    throw new WebApplicationException(e);
+	}
+	generator.writeEndArray();
+	generator.flush();
+    }
+
+    /**
+     * Uses the object mapper registered with the JAX-RS runtime so the
+     * streamed JSON matches the other responses. Falls back to a mapper from
+     * the same provider class if none is registered.
+     */
+    private static ObjectMapper getObjectMapper(Providers providers) {
+	if (providers != null) {
+	    ContextResolver<ObjectMapper> resolver = providers.getContextResolver(ObjectMapper.class,
+		    MediaType.APPLICATION_JSON_TYPE);
+	    if (resolver != null) {
+		ObjectMapper mapper = resolver.getContext(ObjectMapper.class);
+		if (mapper != null) {
+		    return mapper;
+		}
+	    }
+	}
+	return new JacksonObjectMapperProvider().getContext(ObjectMapper.class);
+    }
+}
@@ -0,0 +1,61 @@
+package com.intel.attestationhub.endpoint;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.intel.attestationhub.api.ErrorCode;
+import com.intel.attestationhub.api.ErrorResponse;
+import com.intel.attestationhub.service.AttestationHubService;
+import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
+import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
+import com.intel.mtwilson.launcher.ws.ext.V2;
+
+@V2
+@Path("/")
+public class Scheduler {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Scheduler.class);
+
+    /**
+     * Asks the scheduler to pull the attestations from MTW and push them to
+     * the tenants now, instead of waiting for the next scheduled run. The run
+     * starts within a few seconds, unless a run is already in progress.
+     *
+     * @mtwContentTypeReturned JSON
+     * @mtwMethodType POST
+     * @mtwSampleRestCall
+     *
+     *                    <pre>
+     * https://{IP/HOST_NAME}/v1/scheduler/trigger
+     * Input: None
+     * Output: 202 Accepted
+     *
+     * In case of failure occur on the server side while processing request:
+     * Output:
+     * {
+     * "error_code": "601",
+     * "error_message": "Request processing failed",
+     * "detail_errors": reason for the occurence of failure
+     * }
+     *                    </pre>
+     *
+     * @return 202 once the run is requested
+     */
+    @POST
+    @Path("/scheduler/trigger")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response triggerRun() {
+	log.info("Scheduler run requested");
+	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	try {
+	    attestationHubService.triggerSchedulerRun();
+	} catch (AttestationHubException e) {
+	    ErrorResponse errorResponse = new ErrorResponse(ErrorCode.REQUEST_PROCESSING_FAILED);
+	    errorResponse.detailErrors = e.getMessage();
+	    return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(errorResponse).build();
+	}
+	return Response.status(Response.Status.ACCEPTED).build();
+    }
+}
@@ -16,6 +16,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -27,6 +29,7 @@ import com.intel.attestationhub.service.AttestationHubService;
 import com.intel.attestationhub.service.impl.AttestationHubServiceImpl;
 import com.intel.dcsg.cpg.validation.RegexPatterns;
 import com.intel.dcsg.cpg.validation.ValidationUtil;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
 import com.intel.mtwilson.attestationhub.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
 import com.intel.mtwilson.launcher.ws.ext.V2;
@@ -40,6 +43,9 @@ import com.intel.mtwilson.launcher.ws.ext.V2;
 public class Tenants {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Tenants.class);
 
+    @Context
+    private Providers providers;
+
     /**
      * Create the tenant by passing the JSON that configures the tenant and its
      * plugins
@@ -221,21 +227,14 @@ public class Tenants {
     }
 
     private Response retrieveAllTenants() {
-	AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
-	List<Tenant> tenants;
-	try {
-	    tenants = attestationHubService.retrieveAllTenants();
-	} catch (AttestationHubException e) {
-	    log.error("Error searching for all atenants", e);
-	    ErrorResponse errorResponse = new ErrorResponse(ErrorCode.REQUEST_PROCESSING_FAILED);
-	    errorResponse.detailErrors = e.getMessage();
-	    Status status = Response.Status.INTERNAL_SERVER_ERROR;
-	    if (e.getCause() instanceof NonexistentEntityException) {
-		status = Response.Status.NOT_FOUND;
+	final AttestationHubService attestationHubService = AttestationHubServiceImpl.getInstance();
+	StreamingOutput tenants = new JsonArrayStreamingOutput<Tenant>(providers) {
+	    @Override
+	    protected void stream(EntityHandler<Tenant> handler) throws AttestationHubException {
+		attestationHubService.streamTenants(handler);
 	    }
-	    return Response.status(status).entity(errorResponse).build();
-	}
-	return Response.ok(tenants).build();
+	};
+	return Response.ok(tenants, MediaType.APPLICATION_JSON).build();
     }
 
     /**
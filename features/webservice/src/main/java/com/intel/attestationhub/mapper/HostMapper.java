@@ -1,10 +1,14 @@
 package com.intel.attestationhub.mapper;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.saml2.core.Assertion;
@@ -22,11 +26,86 @@ import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
 import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.data.AhHost;
 import com.intel.mtwilson.datatypes.HostTrustResponse;
-import com.intel.mtwilson.saml.TrustAssertion;
 import com.intel.mtwilson.shiro.ShiroUtil;
 
 public class HostMapper {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostMapper.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Copies only the requested attributes of the host into a new object. The
+     * attributes left out are null and hence skipped in the JSON response.
+     * 
+     * @param ahHost
+     * @param fields
+     *            snake case names of the host attributes as in the JSON
+     *            response
+     * @return the projected host
+     */
+    public static AhHost projectAhHost(AhHost ahHost, Set<String> fields) {
+	AhHost projectedHost = new AhHost(ahHost.getId());
+	for (String field : fields) {
+	    switch (field) {
+	    case "hardware_uuid":
+		projectedHost.setHardwareUuid(ahHost.getHardwareUuid());
+		break;
+	    case "host_name":
+		projectedHost.setHostName(ahHost.getHostName());
+		break;
+	    case "bios_mle_uuid":
+		projectedHost.setBiosMleUuid(ahHost.getBiosMleUuid());
+		break;
+	    case "vmm_mle_uuid":
+		projectedHost.setVmmMleUuid(ahHost.getVmmMleUuid());
+		break;
+	    case "aik_certificate":
+		projectedHost.setAikCertificate(ahHost.getAikCertificate());
+		break;
+	    case "aik_sha256":
+		projectedHost.setAikSha256(ahHost.getAikSha256());
+		break;
+	    case "connection_url":
+		projectedHost.setConnectionUrl(ahHost.getConnectionUrl());
+		break;
+	    case "trust_tags_json":
+		projectedHost.setTrustTagsJson(ahHost.getTrustTagsJson());
+		break;
+	    case "valid_to":
+		projectedHost.setValidTo(ahHost.getValidTo());
+		break;
+	    case "not_after":
+		projectedHost.setNotAfter(ahHost.getNotAfter());
+		break;
+	    case "saml_report":
+		projectedHost.setSamlReport(ahHost.getSamlReport());
+		break;
+	    case "trusted":
+		projectedHost.setTrusted(ahHost.getTrusted());
+		break;
+	    case "asset_tags":
+		projectedHost.setAssetTags(ahHost.getAssetTags());
+		break;
+	    case "created_date":
+		projectedHost.setCreatedDate(ahHost.getCreatedDate());
+		break;
+	    case "created_by":
+		projectedHost.setCreatedBy(ahHost.getCreatedBy());
+		break;
+	    case "modified_date":
+		projectedHost.setModifiedDate(ahHost.getModifiedDate());
+		break;
+	    case "modified_by":
+		projectedHost.setModifiedBy(ahHost.getModifiedBy());
+		break;
+	    case "deleted":
+		projectedHost.setDeleted(ahHost.getDeleted());
+		break;
+	    default:
+		break;
+	    }
+	}
+	return projectedHost;
+    }
 
     public static AhHost mapHostToAhHost(MWHost host, AhHost ahHost, String user) {
 	Host citHost = host.getHost();
@@ -51,66 +130,17 @@ public class HostMapper {
 	ahHost.setHardwareUuid(citHost.getHardwareUuid());
 	ahHost.setHostName(citHost.getName());
 	ahHost.setValidTo(host.getSamlValidTo());
+	ahHost.setNotAfter(host.getSamlNotAfter());
 	ahHost.setTrusted(host.getTrusted() == null ? false : host.getTrusted());
-	if (host.getTrustAssertion() != null) {
-	    TrustAssertion trustAssertion = host.getTrustAssertion();
-	    Assertion assertion = trustAssertion.getAssertion();
-	    List<AttributeStatement> attributeStatements = assertion.getAttributeStatements();
-	    String tag = null;
-	    String tagValue = null;
-	    Map<String, List<String>> assetTagToValueMap = new HashMap<String, List<String>>();
-	    List<String> tagValueList = null;
-	    for (AttributeStatement attributeStatement : attributeStatements) {
-		List<Attribute> attributes = attributeStatement.getAttributes();
-		for (Attribute attribute : attributes) {
-		    tagValue = null;
-		    tag = null;
-		    String name = attribute.getName();
-		    if (name.startsWith(Constants.SAML_TAG)) {
-			int indexOfSquareBracketOpen = name.indexOf("[");
-			int indexOfSquareBracketClose = name.indexOf("]");
-			if (indexOfSquareBracketOpen != -1 && indexOfSquareBracketClose != 1) {
-			    tag = name.substring(indexOfSquareBracketOpen + 1, indexOfSquareBracketClose);
-			} else {
-			    continue;
-			}
-			if (StringUtils.isBlank(tag)) {
-			    continue;
-			}
-			if (assetTagToValueMap.containsKey(tag)) {
-			    tagValueList = assetTagToValueMap.get(tag);
-			} else {
-			    tagValueList = new ArrayList<String>();
-			    assetTagToValueMap.put(tag, tagValueList);
-			}
-			List<XMLObject> attributeValues = attribute.getAttributeValues();
-			for (XMLObject xmlObject : attributeValues) {
-			    Element dom = xmlObject.getDOM();
-			    tagValue = dom.getTextContent();
-			}
-			if (StringUtils.isBlank(tagValue)) {
-			    continue;
-			}
-			tagValueList.add(tagValue);
-		    }
-		}
-
-		ObjectMapper mapper = new ObjectMapper();
-		try {
-		    String writeValueAsString = mapper.writeValueAsString(assetTagToValueMap);
-		    ahHost.setAssetTags(writeValueAsString);
-		} catch (JsonProcessingException e) {
-		    log.error("Error converting map of asset tags to JSON");
-		}
-	    }
-
+	String assetTags = getAssetTagsJson(host);
+	if (assetTags != null) {
+	    ahHost.setAssetTags(assetTags);
 	}
 	if (citHostAttestation != null) {
 	    ahHost.setSamlReport(citHostAttestation.getSaml());
 	    HostTrustResponse hostTrustResponse = citHostAttestation.getHostTrustResponse();
-	    ObjectMapper objectMapper = new ObjectMapper();
 	    try {
-		ahHost.setTrustTagsJson(objectMapper.writeValueAsString(hostTrustResponse));
+		ahHost.setTrustTagsJson(MAPPER.writeValueAsString(hostTrustResponse));
 	    } catch (JsonProcessingException e) {
 		log.error(
 			"Unable to parse the 'host_trust_response' from the host attestation response for host: {} and name: {}",
@@ -121,6 +151,103 @@ public class HostMapper {
 	return ahHost;
     }
 
+    /**
+     * @return JSON of the asset tags in the trust assertion of the host,
+     *         sorted by tag name, or null if the host has no trust assertion
+     *         or it has no attribute statements
+     */
+    private static String getAssetTagsJson(MWHost host) {
+	if (host.getTrustAssertion() == null) {
+	    return null;
+	}
+	Assertion assertion = host.getTrustAssertion().getAssertion();
+	if (assertion.getAttributeStatements().isEmpty()) {
+	    return null;
+	}
+	Map<String, List<String>> assetTagToValueMap = new TreeMap<String, List<String>>();
+	for (AttributeStatement attributeStatement : assertion.getAttributeStatements()) {
+	    for (Attribute attribute : attributeStatement.getAttributes()) {
+		String name = attribute.getName();
+		if (!name.startsWith(Constants.SAML_TAG)) {
+		    continue;
+		}
+		int indexOfSquareBracketOpen = name.indexOf("[");
+		int indexOfSquareBracketClose = name.indexOf("]");
+		if (indexOfSquareBracketOpen == -1 || indexOfSquareBracketClose == 1) {
+		    continue;
+		}
+		String tag = name.substring(indexOfSquareBracketOpen + 1, indexOfSquareBracketClose);
+		if (StringUtils.isBlank(tag)) {
+		    continue;
+		}
+		List<String> tagValueList = assetTagToValueMap.get(tag);
+		if (tagValueList == null) {
+		    tagValueList = new ArrayList<String>();
+		    assetTagToValueMap.put(tag, tagValueList);
+		}
+		String tagValue = null;
+		for (XMLObject xmlObject : attribute.getAttributeValues()) {
+		    Element dom = xmlObject.getDOM();
+		    tagValue = dom.getTextContent();
+		}
+		if (StringUtils.isBlank(tagValue)) {
+		    continue;
+		}
+		tagValueList.add(tagValue);
+	    }
+	}
+	try {
+	    return MAPPER.writeValueAsString(assetTagToValueMap);
+	} catch (JsonProcessingException e) {
+	    log.error("Error converting map of asset tags to JSON");
+	    return null;
+	}
+    }
+
+    /**
+     * SHA-256 of the trust status, trust tags, asset tags and host details of
+     * the attestation, which is stored with the host to tell whether a later
+     * attestation changes the trust of the host. The SAML is left out, as
+     * every attestation has its own; a later attestation with the same
+     * fingerprint only renews the SAML and its validity.
+     * 
+     * @param host
+     * @return hex encoded digest
+     */
+    public static String fingerprint(MWHost host) {
+	Host citHost = host.getHost();
+	HostAttestation citHostAttestation = host.getMwHostAttestation();
+	String trustTagsJson = null;
+	if (citHostAttestation != null) {
+	    try {
+		trustTagsJson = MAPPER.writeValueAsString(citHostAttestation.getHostTrustResponse());
+	    } catch (JsonProcessingException e) {
+		log.error("Unable to serialize the trust tags of host: {} for the fingerprint", citHost.getId());
+	    }
+	}
+	MessageDigest digest;
+	try {
+	    digest = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IllegalStateException(e);
+	}
+	String[] fields = { String.valueOf(host.getTrusted()), trustTagsJson, getAssetTagsJson(host),
+		citHost.getName(), citHost.getHardwareUuid(), citHost.getConnectionUrl(), citHost.getAikSha256(),
+		citHost.getAikCertificate(), citHost.getBiosMleUuid() };
+	for (String field : fields) {
+	    if (field != null) {
+		digest.update(field.getBytes(StandardCharsets.UTF_8));
+	    }
+	    // separator, so that moving text between fields changes the digest
+	    digest.update((byte) 0);
+	}
+	StringBuilder hex = new StringBuilder();
+	for (byte b : digest.digest()) {
+	    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+	}
+	return hex.toString();
+    }
+
     public static AhHost mapHostToAhHost(MWHost host, AhHost ahHost) {
 	log.info("Before getting logged in user");
 	String currentUser = ShiroUtil.subjectUsername();
@@ -131,7 +258,7 @@ public class HostMapper {
 
     public static Host mapAhHostToCitHost(AhHost ahHost) {
 	Host host = new Host();
-	host.setId(new UUID(ahHost.getId().getBytes()));
+	host.setId(UUID.valueOf(ahHost.getId()));
 	host.setAikCertificate(ahHost.getAikCertificate());
 	host.setAikSha256(ahHost.getAikSha256());
 	host.setBiosMleUuid(ahHost.getBiosMleUuid());
@@ -9,6 +9,7 @@ import com.intel.attestationhub.api.MappingResultResponse;
 import com.intel.attestationhub.api.SearchCriteriaForMapping;
 import com.intel.attestationhub.api.Tenant;
 import com.intel.attestationhub.api.TenantFilterCriteria;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
 import com.intel.mtwilson.attestationhub.data.AhHost;
 import com.intel.mtwilson.attestationhub.data.AhMapping;
 import com.intel.mtwilson.attestationhub.exception.AttestationHubException;
@@ -55,6 +56,15 @@ public interface AttestationHubService {
 
     public List<AhHost> getHosts() throws AttestationHubException;
 
+    public int streamHosts(EntityHandler<AhHost> handler) throws AttestationHubException;
+
+    public int streamMappings(EntityHandler<AhMapping> handler) throws AttestationHubException;
+
+    public int streamTenants(EntityHandler<Tenant> handler) throws AttestationHubException;
+
+    public List<AhHost> getHostsPage(HostFilterCriteria hostFilterCriteria)
+	    throws AttestationHubException;
+
     public List<AhHost> searchHostsWithSearchCriteria(
 	    HostFilterCriteria hostFilterCriteria)
 	    throws AttestationHubException;
@@ -63,4 +73,6 @@ public interface AttestationHubService {
     public AhHost findActiveHostByHardwareUuid(String hardwareUuid) throws AttestationHubException;
     public void markAllHostsAsDeleted() throws AttestationHubException;
 
+    public void triggerSchedulerRun() throws AttestationHubException;
+
 }
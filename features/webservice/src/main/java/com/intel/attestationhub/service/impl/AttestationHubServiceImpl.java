@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -26,12 +28,15 @@ import com.intel.attestationhub.api.TenantFilterCriteria;
 import com.intel.attestationhub.mapper.HostMapper;
 import com.intel.attestationhub.mapper.TenantMapper;
 import com.intel.attestationhub.service.AttestationHubService;
+import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.as.rest.v2.model.Host;
+import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
 import com.intel.mtwilson.attestationhub.common.AttestationHubConfigUtil;
 import com.intel.mtwilson.attestationhub.common.Constants;
 import com.intel.mtwilson.attestationhub.controller.AhHostJpaController;
 import com.intel.mtwilson.attestationhub.controller.AhMappingJpaController;
 import com.intel.mtwilson.attestationhub.controller.AhTenantJpaController;
+import com.intel.mtwilson.attestationhub.controller.EntityHandler;
 import com.intel.mtwilson.attestationhub.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.attestationhub.controller.exceptions.PreexistingEntityException;
 import com.intel.mtwilson.attestationhub.data.AhHost;
@@ -42,6 +47,7 @@ import com.intel.mtwilson.attestationhub.service.PersistenceServiceFactory;
 
 public class AttestationHubServiceImpl implements AttestationHubService {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationHubServiceImpl.class);
+    private static final int DEFAULT_DB_BATCH_SIZE = 500;
 
     public static AttestationHubService getInstance() {
 	return new AttestationHubServiceImpl();
@@ -178,7 +184,7 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	List<Tenant> tenants = new ArrayList<Tenant>();
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhTenantJpaController tenantController = persistenceServiceFactory.getTenantController();
-	List<AhTenant> ahTenants = tenantController.findAhTenantEntities();
+	List<AhTenant> ahTenants = tenantController.findActiveAhTenantEntities();
 
 	if (ahTenants == null) {
 	    NonexistentEntityException nonexistentEntityException = new NonexistentEntityException(
@@ -187,10 +193,6 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	}
 
 	for (AhTenant ahTenant : ahTenants) {
-	    if (ahTenant.getDeleted() != null && ahTenant.getDeleted()) {
-		log.debug("Tenant {} is deleted. Hence not returning in the results", ahTenant.getId());
-		continue;
-	    }
 	    tenants.add(TenantMapper.mapJpatoApi(ahTenant));
 	}
 
@@ -276,23 +278,13 @@ public class AttestationHubServiceImpl implements AttestationHubService {
     public List<AhMapping> retrieveAllMappings() throws AttestationHubException {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhMappingJpaController mappingController = persistenceServiceFactory.getTenantToHostMappingController();
-	List<AhMapping> ahMappings = mappingController.findAhMappingEntities();
+	List<AhMapping> ahMappings = mappingController.findActiveAhMappingEntities();
 	if (ahMappings == null) {
 	    NonexistentEntityException nonexistentEntityException = new NonexistentEntityException(
 		    "Tenant-Host mappings do not exist");
 	    throw new AttestationHubException(nonexistentEntityException);
 	}
-	List<AhMapping> activeMappings = new ArrayList<>();
-	for (AhMapping ahMapping : ahMappings) {
-	    if (ahMapping.getDeleted() != null && ahMapping.getDeleted()) {
-		log.debug(
-			"Mapping {} between tenant: {} and host hardware uuid: {} has been deleted. Skipping from all mapping result",
-			ahMapping.getId(), ahMapping.getTenant().getId(), ahMapping.getHostHardwareUuid());
-		continue;
-	    }
-	    activeMappings.add(ahMapping);
-	}
-	return activeMappings;
+	return ahMappings;
     }
 
     @Override
@@ -418,87 +410,155 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	}
 
 	AhHostJpaController hostController = PersistenceServiceFactory.getInstance().getHostController();
-	List<String> savedAhHostIdList = new ArrayList<String>(hostAttestationsMap.size());
-	log.debug("Fetch all hosts from the attestation hub DB");
+	int batchSize = AttestationHubConfigUtil.getInteger(Constants.ATTESTATION_HUB_DB_BATCH_SIZE,
+		DEFAULT_DB_BATCH_SIZE);
+	if (batchSize <= 0) {
+	    batchSize = DEFAULT_DB_BATCH_SIZE;
+	}
 
 	// the map passed to method has the key which is the ID of the
 	// host in the attestation db. the value of the map is a custom hub
 	// wrapper object
 	// which contains the Host and Host Attestation object for the host from
-	// Attestation service
-	for (String id : hostAttestationsMap.keySet()) {
-	    boolean ahHostExists = false;
-	    MWHost mwHost = hostAttestationsMap.get(id);
-	    Host host = mwHost.getHost();
-	    log.debug("Processing save for host ID : {} and name: {}", host.getId(), host.getName());
-	    AhHost ahHost = hostController.findAhHost(host.getId().toString());
-	    log.debug("Does the host already exist in Attestation Hub DB ? {}", ahHost != null);
-
-	    // In a case where a host was added previously, but later was
-	    // deleted from MTW and re added,
-	    // the UUID would be different, but the hardware uuid would be the
-	    // same. In this case
-	    // we would want to disable the earlier record
-	    if (ahHost != null) {
-		ahHostExists = true;
-	    } else {
-		List<AhHost> findHostsByHardwareUuid = hostController.findHostsByHardwareUuid(host.getHardwareUuid().toUpperCase());
-		if (findHostsByHardwareUuid != null) {
-		    // In this case we want to disable all these records
-		    for (AhHost ahHost2 : findHostsByHardwareUuid) {
-		    	if(ahHost2.getDeleted() != null && ahHost2.getDeleted()){
-		    		continue;
-				}
-			ahHost2.setDeleted(true);
-			ahHost2.setModifiedDate(new Date());
-			try {
-			    hostController.edit(ahHost2);
-			} catch (PreexistingEntityException e) {
-			    log.error("Error updating host {} since host already exists", ahHost2.getId(), e);
-			    throw new AttestationHubException(e);
-			} catch (Exception e) {
-			    log.error("Error updating host", e);
-			    throw new AttestationHubException(e);
-			}
+	// Attestation service. The hosts are written in chunks of batchSize,
+	// each chunk with one lookup query and one transaction
+	List<String> ids = getNewestHostIdPerHardwareUuid(hostAttestationsMap);
+	for (int i = 0; i < ids.size(); i += batchSize) {
+	    List<String> chunkIds = ids.subList(i, Math.min(i + batchSize, ids.size()));
+	    log.debug("Fetch {} hosts from the attestation hub DB", chunkIds.size());
+	    Map<String, AhHost> existingHostsMap = hostController.findAhHostsByIds(chunkIds);
+	    List<AhHost> ahHostsToSave = new ArrayList<AhHost>(chunkIds.size());
+	    List<AhHost> samlReportsToUpdate = new ArrayList<AhHost>();
+	    Set<String> hardwareUuidsToDeactivate = new HashSet<String>();
+	    for (String id : chunkIds) {
+		MWHost mwHost = hostAttestationsMap.get(id);
+		Host host = mwHost.getHost();
+		log.debug("Processing save for host ID : {} and name: {}", host.getId(), host.getName());
+		AhHost ahHost = existingHostsMap.get(host.getId().toString());
+		log.debug("Does the host already exist in Attestation Hub DB ? {}", ahHost != null);
+		// attestations are verified in parallel, so an older attestation
+		// of the host can come after the newer one is saved
+		if (ahHost != null && ahHost.getNotAfter() != null && mwHost.getSamlNotAfter() != null
+			&& mwHost.getSamlNotAfter().before(ahHost.getNotAfter())) {
+		    log.debug("Skipping older attestation of host ID : {}", host.getId());
+		    mwHost.setUnchanged(true);
+		    continue;
+		}
+		String fingerprint = HostMapper.fingerprint(mwHost);
+		if (ahHost != null && !Boolean.TRUE.equals(ahHost.getDeleted())
+			&& fingerprint.equals(ahHost.getFingerprint())) {
+		    HostAttestation hostAttestation = mwHost.getMwHostAttestation();
+		    if (hostAttestation == null || StringUtils.equals(hostAttestation.getSaml(), ahHost.getSamlReport())) {
+			log.debug("Attestation of host ID : {} unchanged. Not saving", host.getId());
+			mwHost.setUnchanged(true);
+			continue;
 		    }
+		    // a new attestation with the same trust only renews the SAML
+		    log.debug("Trust of host ID : {} unchanged. Updating its SAML", host.getId());
+		    ahHost.setSamlReport(hostAttestation.getSaml());
+		    ahHost.setValidTo(mwHost.getSamlValidTo());
+		    ahHost.setNotAfter(mwHost.getSamlNotAfter());
+		    ahHost.setModifiedDate(new Date());
+		    ahHost.setModifiedBy("admin");
+		    samlReportsToUpdate.add(ahHost);
+		    continue;
 		}
+
+		// In a case where a host was added previously, but later was
+		// deleted from MTW and re added,
+		// the UUID would be different, but the hardware uuid would be the
+		// same. In this case
+		// we would want to disable the earlier record
+		if (ahHost == null && StringUtils.isNotBlank(host.getHardwareUuid())) {
+		    hardwareUuidsToDeactivate.add(host.getHardwareUuid().toUpperCase());
+		}
+		ahHost = HostMapper.mapHostToAhHost(mwHost, ahHost, "admin");
+		ahHost.setFingerprint(fingerprint);
+		ahHost.setDeleted(false);
+		ahHostsToSave.add(ahHost);
 	    }
-	    ahHost = HostMapper.mapHostToAhHost(mwHost, ahHost, "admin");
-	    ahHost.setDeleted(false);
 
+	    if (ahHostsToSave.isEmpty() && samlReportsToUpdate.isEmpty()) {
+		continue;
+	    }
 	    try {
-		if (ahHostExists) {
-		    hostController.edit(ahHost);
-		    log.debug("Edited the host: {} in attestation DB ", ahHost.getId());
-		    savedAhHostIdList.add(ahHost.getId());
-		} else {
-		    hostController.create(ahHost);
-		    log.debug("Added host to attestation DB with ID: {}", ahHost.getId());
-		}
-	    } catch (PreexistingEntityException e) {
-		log.error("Error creating host {} since host already exists", ahHost.getId(), e);
-		throw new AttestationHubException(e);
+		hostController.upsertHosts(ahHostsToSave, hardwareUuidsToDeactivate);
+		hostController.updateSamlReports(samlReportsToUpdate);
+		log.debug("Saved {} hosts and updated the SAML of {} hosts in attestation DB", ahHostsToSave.size(),
+			samlReportsToUpdate.size());
 	    } catch (Exception e) {
-		log.error("Error creating host", e);
+		log.error("Error saving hosts", e);
 		throw new AttestationHubException(e);
 	    }
 	}
     }
 
+    /**
+     * A host deleted and registered again in MTW has a new id but the same
+     * hardware uuid, and both hosts can be attested in the same run. Only the
+     * newest attestation of each hardware uuid is saved, as saving both would
+     * leave both hosts active. The others are marked unchanged.
+     * 
+     * @return ids of the hosts to save
+     */
+    private List<String> getNewestHostIdPerHardwareUuid(Map<String, MWHost> hostAttestationsMap) {
+	List<String> ids = new ArrayList<String>(hostAttestationsMap.size());
+	Map<String, String> idByHardwareUuid = new HashMap<String, String>();
+	for (Map.Entry<String, MWHost> entry : hostAttestationsMap.entrySet()) {
+	    String hardwareUuid = entry.getValue().getHost().getHardwareUuid();
+	    if (StringUtils.isBlank(hardwareUuid)) {
+		ids.add(entry.getKey());
+		continue;
+	    }
+	    hardwareUuid = hardwareUuid.toUpperCase();
+	    String otherId = idByHardwareUuid.get(hardwareUuid);
+	    if (otherId == null) {
+		idByHardwareUuid.put(hardwareUuid, entry.getKey());
+		continue;
+	    }
+	    MWHost other = hostAttestationsMap.get(otherId);
+	    String olderId = otherId;
+	    if (isOlder(entry.getValue(), other)) {
+		olderId = entry.getKey();
+	    } else {
+		idByHardwareUuid.put(hardwareUuid, entry.getKey());
+	    }
+	    log.info("Hosts {} and {} have the same hardware uuid {}. Not saving the older attestation of host {}",
+		    otherId, entry.getKey(), hardwareUuid, olderId);
+	    hostAttestationsMap.get(olderId).setUnchanged(true);
+	}
+	ids.addAll(idByHardwareUuid.values());
+	return ids;
+    }
+
+    /**
+     * @return true if the attestation of the host was issued before the one
+     *         of the other host, by the issue time of the SAML or else its
+     *         expiry
+     */
+    private static boolean isOlder(MWHost host, MWHost other) {
+	Date date = getAttestationDate(host);
+	Date otherDate = getAttestationDate(other);
+	return date != null && otherDate != null && date.before(otherDate);
+    }
+
+    private static Date getAttestationDate(MWHost host) {
+	if (host.getTrustAssertion() != null && host.getTrustAssertion().getDate() != null) {
+	    return host.getTrustAssertion().getDate();
+	}
+	return host.getSamlNotAfter();
+    }
+
     @Override
     public List<Tenant> searchTenantsBySearchCriteria(TenantFilterCriteria tenantFilterCriteria)
 	    throws AttestationHubException {
 	AhTenantJpaController tenantController = PersistenceServiceFactory.getInstance().getTenantController();
 	List<Tenant> tenantsList = new ArrayList<Tenant>();
 	List<AhTenant> ahTenantsList = tenantController
-		.findAhTenantsByNameSearchCriteria(tenantFilterCriteria.nameEqualTo.toUpperCase());
+		.findActiveAhTenantsByNameSearchCriteria(tenantFilterCriteria.nameEqualTo.toUpperCase());
 	if (ahTenantsList != null) {
 	    log.debug("Found {} tenants with name : {}", ahTenantsList.size(), tenantFilterCriteria.nameEqualTo);
 	    for (AhTenant ahTenant : ahTenantsList) {
-		if (ahTenant.getDeleted() != null && ahTenant.getDeleted()) {
-		    log.debug("Tenant {} has been deleted. Skipping from search results", ahTenant.getId());
-		    continue;
-		}
 		tenantsList.add(TenantMapper.mapJpatoApi(ahTenant));
 	    }
 	}
@@ -510,28 +570,16 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	    throws AttestationHubException {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhMappingJpaController mappingController = persistenceServiceFactory.getTenantToHostMappingController();
-	List<AhMapping> ahMappings = new ArrayList<>();
+	List<AhMapping> ahMappings = null;
 	if (StringUtils.isNotBlank(criteriaForMapping.tenantId)) {
-	    ahMappings = mappingController.findAhMappingsByTenantId(criteriaForMapping.tenantId);
+	    ahMappings = mappingController.findActiveAhMappingsByTenantId(criteriaForMapping.tenantId);
 	} else if (StringUtils.isNotBlank(criteriaForMapping.hostHardwareUuid)) {
-	    ahMappings = mappingController.findAhMappingsByHostHardwareUuid(criteriaForMapping.hostHardwareUuid);
-	} else {
-	    ahMappings = null;
+	    ahMappings = mappingController.findActiveAhMappingsByHostHardwareUuid(criteriaForMapping.hostHardwareUuid);
 	}
 	if (ahMappings == null) {
-	    return ahMappings;
-	}
-	List<AhMapping> activeMappings = new ArrayList<>();
-	for (AhMapping ahMapping : ahMappings) {
-	    if (ahMapping.getDeleted() != null && ahMapping.getDeleted()) {
-		log.debug(
-			"Mapping {} between tenant: {} and host hardware uuid: {} has been deleted. Skipping from all mapping result",
-			ahMapping.getId(), ahMapping.getTenant().getId(), ahMapping.getHostHardwareUuid());
-		continue;
-	    }
-	    activeMappings.add(ahMapping);
+	    return new ArrayList<>();
 	}
-	return activeMappings;
+	return ahMappings;
     }
 
     @Override
@@ -560,19 +608,72 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	log.info("Getting all availabe hosts on attestation hub");
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhHostJpaController ahHostJpaController = persistenceServiceFactory.getHostController();
-	List<AhHost> ahHosts = ahHostJpaController.findAhHostEntities();
-	List<AhHost> activeHosts = null;
-	if (ahHosts != null) {
-	    activeHosts = new ArrayList<>();
-	    for (AhHost ahHost : ahHosts) {
-		if (ahHost.getDeleted() != null && ahHost.getDeleted()) {
-		    log.debug("The host was marked as deleted. Hence skipping.");
-		    continue;
+	return ahHostJpaController.findActiveAhHostEntities();
+    }
+
+    @Override
+    public int streamHosts(EntityHandler<AhHost> handler) throws AttestationHubException {
+	log.info("Streaming all available hosts on attestation hub");
+	AhHostJpaController ahHostJpaController = PersistenceServiceFactory.getInstance().getHostController();
+	try {
+	    return ahHostJpaController.streamActiveAhHostEntities(handler);
+	} catch (Exception e) {
+	    log.error("Error streaming hosts", e);
+	    throw new AttestationHubException(e);
+	}
+    }
+
+    @Override
+    public int streamMappings(EntityHandler<AhMapping> handler) throws AttestationHubException {
+	AhMappingJpaController mappingController = PersistenceServiceFactory.getInstance()
+		.getTenantToHostMappingController();
+	try {
+	    return mappingController.streamActiveAhMappingEntities(handler);
+	} catch (Exception e) {
+	    log.error("Error streaming tenant-host mappings", e);
+	    throw new AttestationHubException(e);
+	}
+    }
+
+    @Override
+    public int streamTenants(final EntityHandler<Tenant> handler) throws AttestationHubException {
+	AhTenantJpaController tenantController = PersistenceServiceFactory.getInstance().getTenantController();
+	try {
+	    return tenantController.streamActiveAhTenantEntities(new EntityHandler<AhTenant>() {
+		@Override
+		public void handle(AhTenant ahTenant) throws Exception {
+		    handler.handle(TenantMapper.mapJpatoApi(ahTenant));
 		}
-		activeHosts.add(ahHost);
-	    }
+	    });
+	} catch (Exception e) {
+	    log.error("Error streaming tenants", e);
+	    throw new AttestationHubException(e);
 	}
-	return activeHosts;
+    }
+
+    @Override
+    public List<AhHost> getHostsPage(HostFilterCriteria hostFilterCriteria) throws AttestationHubException {
+	int pageSize = Math.min(hostFilterCriteria.getPageSize(), HostFilterCriteria.MAX_PAGE_SIZE);
+	Set<String> fieldSet = hostFilterCriteria.getFieldSet();
+	// The TEXT columns are read only if one of them is requested
+	boolean summary = fieldSet != null && Collections.disjoint(fieldSet, HostFilterCriteria.HOST_LARGE_FIELDS);
+	log.info("Getting {} hosts after host id {}", pageSize, hostFilterCriteria.afterId);
+	AhHostJpaController ahHostJpaController = PersistenceServiceFactory.getInstance().getHostController();
+	List<AhHost> ahHosts;
+	try {
+	    ahHosts = ahHostJpaController.findActiveAhHostsPage(hostFilterCriteria.afterId, pageSize, summary);
+	} catch (Exception e) {
+	    log.error("Error fetching page of hosts", e);
+	    throw new AttestationHubException(e);
+	}
+	if (fieldSet == null) {
+	    return ahHosts;
+	}
+	List<AhHost> projectedHosts = new ArrayList<>(ahHosts.size());
+	for (AhHost ahHost : ahHosts) {
+	    projectedHosts.add(HostMapper.projectAhHost(ahHost, fieldSet));
+	}
+	return projectedHosts;
     }
 
     @Override
@@ -580,20 +681,13 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	    throws AttestationHubException {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhHostJpaController ahHostJpaController = persistenceServiceFactory.getHostController();
-	List<AhHost> ahHosts = ahHostJpaController.findHostsWithFilterCriteria(hostFilterCriteria.nameEqualTo);
+	List<AhHost> ahHosts = ahHostJpaController.findActiveHostsWithFilterCriteria(hostFilterCriteria.nameEqualTo);
 	List<AhHost> activeHosts = null;
 	if (ahHosts != null) {
 	    log.debug("Found {} host with given filter criteria {}", ahHosts.size(), hostFilterCriteria.nameEqualTo);
-	    activeHosts = new ArrayList<>();
-
-	    for (AhHost ahHost : ahHosts) {
-		if (ahHost.getDeleted() != null && ahHost.getDeleted()) {
-		    log.debug("The host was marked as deleted. Hence skipping.");
-		    continue;
-		}
-		activeHosts.add(ahHost);
-	    }
+	    activeHosts = ahHosts;
 	} else {
+	    activeHosts = new ArrayList<>();
 	    log.debug("No hosts found with given filter criteria {}", hostFilterCriteria.nameEqualTo);
 	}
 	return activeHosts;
@@ -604,22 +698,9 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhHostJpaController ahHostJpaController = persistenceServiceFactory.getHostController();
 	hardwareUuid = hardwareUuid.toUpperCase();
-	List<AhHost> ahHosts = ahHostJpaController.findHostsByHardwareUuid(hardwareUuid);
-	List<AhHost> activeHosts = null;
-	if (ahHosts != null) {
-	    log.debug("Found {} host with given hardware id {}", ahHosts.size(), hardwareUuid);
-	    for (AhHost ahHost : ahHosts) {
-		if (ahHost.getDeleted() != null && ahHost.getDeleted()) {
-		    log.debug("Host: {} has been deleted", ahHost.getId());
-		    continue;
-		} else {
-		    if (activeHosts == null) {
-			activeHosts = new ArrayList<>();
-		    }
-		}
-		activeHosts.add(ahHost);
-	    }
-
+	List<AhHost> activeHosts = ahHostJpaController.findActiveHostsByHardwareUuid(hardwareUuid);
+	if (activeHosts != null) {
+	    log.debug("Found {} host with given hardware id {}", activeHosts.size(), hardwareUuid);
 	} else {
 	    log.debug("No hosts found with given host hardware uuid {}", hardwareUuid);
 	}
@@ -630,8 +711,9 @@ public class AttestationHubServiceImpl implements AttestationHubService {
 
     @Override
     public AhHost findActiveHostByHardwareUuid(String hardwareUuid) throws AttestationHubException {
-	List<AhHost> findHostsByHardwareUuid = findHostsByHardwareUuid(hardwareUuid);
 	log.info("Finding active host");
+	AhHostJpaController ahHostJpaController = PersistenceServiceFactory.getInstance().getHostController();
+	List<AhHost> findHostsByHardwareUuid = ahHostJpaController.findActiveHostsByHardwareUuid(hardwareUuid);
 
 	if (findHostsByHardwareUuid == null) {
 	    throw new AttestationHubException("Unable to find an active host with hardware id: " + hardwareUuid);
@@ -644,18 +726,32 @@ public class AttestationHubServiceImpl implements AttestationHubService {
     public void markAllHostsAsDeleted() throws AttestationHubException {
 	PersistenceServiceFactory persistenceServiceFactory = PersistenceServiceFactory.getInstance();
 	AhHostJpaController ahHostJpaController = persistenceServiceFactory.getHostController();
-	List<AhHost> ahHosts = ahHostJpaController.findAhHostEntities();
-	for (AhHost ahHost : ahHosts) {
-	    ahHost.setDeleted(true);
-	    try {
-		ahHostJpaController.edit(ahHost);
-	    } catch (NonexistentEntityException e) {
-		String msg = "Invalid host id: " + ahHost.getId();
-		log.error(msg, e);
-	    } catch (Exception e) {
-		String msg = "Error updating host as deleted: " + ahHost.getId();
-		log.error(msg, e);
+	try {
+	    int deleted = ahHostJpaController.deactivateAllHosts();
+	    log.info("Marked {} hosts as deleted", deleted);
+	} catch (Exception e) {
+	    String msg = "Error updating hosts as deleted";
+	    log.error(msg, e);
+	    throw new AttestationHubException(msg, e);
+	}
+    }
+
+    /**
+     * The scheduler runs in its own process and checks for the trigger file
+     * every few seconds. The file is removed when the run starts.
+     */
+    @Override
+    public void triggerSchedulerRun() throws AttestationHubException {
+	File triggerFile = new File(
+		Folders.configuration() + File.separator + Constants.ATTESTATION_HUB_SCHEDULER_TRIGGER_FILE_NAME);
+	try {
+	    if (!triggerFile.createNewFile()) {
+		log.info("Scheduler run already triggered");
 	    }
+	} catch (IOException e) {
+	    String msg = "Error creating the scheduler trigger file";
+	    log.error(msg, e);
+	    throw new AttestationHubException(msg, e);
 	}
     }
 }